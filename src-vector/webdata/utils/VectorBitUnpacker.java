@@ -0,0 +1,113 @@
+package webdata.utils;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes bit packed values with the vector API (jdk.incubator.vector, JDK 16 and later), a vector of values at a
+ * time. The packed bytes are loaded to big endian words, and every lane gathers the word it's value starts in and the
+ * word after it, and shifts the value out of them. The word and the shift of every value of a block are the same for
+ * all blocks of a width, so they are computed once per width.
+ * This class is in it's own source root (src-vector), compiled with "--add-modules jdk.incubator.vector" on JDK 16 or
+ * later, and it is only loaded (by BitUnpacker, through create) if it was compiled and the module is available at
+ * run time. Blocks shorter than a vector are decoded by the scalar unpacker.
+ */
+class VectorBitUnpacker implements BitUnpacker {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int MAX_BLOCK_SIZE = PForDeltaCodec.BLOCK_SIZE;
+
+    /* The first word of every value of a block, the word after it and the bit of the first word it starts at,
+       by the width of the block */
+    private static final int[][] WORDS = new int[Integer.SIZE + 1][];
+    private static final int[][] NEXT_WORDS = new int[Integer.SIZE + 1][];
+    private static final int[][] SHIFTS = new int[Integer.SIZE + 1][];
+
+    static {
+        for (int width = 0; width <= Integer.SIZE; ++width) {
+            WORDS[width] = new int[MAX_BLOCK_SIZE + LANES];
+            NEXT_WORDS[width] = new int[MAX_BLOCK_SIZE + LANES];
+            SHIFTS[width] = new int[MAX_BLOCK_SIZE + LANES];
+            for (int i = 0; i < MAX_BLOCK_SIZE; ++i) {
+                WORDS[width][i] = i * width / Integer.SIZE;
+                NEXT_WORDS[width][i] = WORDS[width][i] + 1;
+                SHIFTS[width][i] = i * width % Integer.SIZE;
+            }
+        }
+    }
+
+    /* The packed bytes and words of the block being decoded, per thread */
+    private final ThreadLocal<byte[]> bytes = ThreadLocal.withInitial(
+            () -> new byte[MAX_BLOCK_SIZE * Integer.BYTES + 2 * LANES * Integer.BYTES]);
+    private final ThreadLocal<int[]> words = ThreadLocal.withInitial(() -> new int[MAX_BLOCK_SIZE + 2 * LANES]);
+
+    /**
+     * Create the unpacker.
+     * @return The unpacker, or null if there are no vector registers to use
+     */
+    static BitUnpacker create() {
+        return (LANES < 4) ? null : new VectorBitUnpacker();
+    }
+
+    @Override
+    public String getName() { return "vector x" + LANES; }
+
+    @Override
+    public int unpack(ByteBuffer in, int pos, int width, int[] out, int from, int n) {
+        int numOfBytes = (n * width + Byte.SIZE - 1) / Byte.SIZE;
+        if (width == 0 || n < LANES || n > MAX_BLOCK_SIZE) {
+            return SCALAR.unpack(in, pos, width, out, from, n);
+        }
+        byte[] packed = bytes.get();
+        int[] packedWords = words.get();
+        in.duplicate().position(pos).get(packed, 0, numOfBytes);
+        for (int b = 0; b < numOfBytes; b += LANES * Integer.BYTES) {
+            IntVector.fromByteArray(SPECIES, packed, b, ByteOrder.BIG_ENDIAN)
+                     .intoArray(packedWords, b / Integer.BYTES);
+        }
+
+        int[] firstWords = WORDS[width];
+        int[] nextWords = NEXT_WORDS[width];
+        int[] shifts = SHIFTS[width];
+        for (int i = 0; i < n; i += LANES) {
+            IntVector shift = IntVector.fromArray(SPECIES, shifts, i);
+            IntVector first = IntVector.fromArray(SPECIES, packedWords, 0, firstWords, i);
+            IntVector next = IntVector.fromArray(SPECIES, packedWords, 0, nextWords, i);
+            /* The bits of the next word are shifted right by 32 - shift, in two steps so a shift of 0 clears them */
+            IntVector value = first.lanewise(VectorOperators.LSHL, shift)
+                    .or(next.lanewise(VectorOperators.LSHR, 1)
+                            .lanewise(VectorOperators.LSHR, shift.neg().add(Integer.SIZE - 1)))
+                    .lanewise(VectorOperators.LSHR, Integer.SIZE - width);
+            if (i + LANES <= n) {
+                value.intoArray(out, from + i);
+            } else {
+                value.intoArray(out, from + i, SPECIES.indexInRange(i, n));
+            }
+        }
+        return pos + numOfBytes;
+    }
+
+    @Override
+    public int prefixSum(int[] values, int from, int n, int prevVal) {
+        int i = 0;
+        for (; i + LANES <= n; i += LANES) {
+            IntVector sum = IntVector.fromArray(SPECIES, values, from + i);
+            for (int shift = 1; shift < LANES; shift <<= 1) {
+                sum = sum.add(sum.unslice(shift));
+            }
+            sum = sum.add(prevVal);
+            sum.intoArray(values, from + i);
+            prevVal = sum.lane(LANES - 1);
+        }
+        for (; i < n; ++i) {
+            prevVal += values[from + i];
+            values[from + i] = prevVal;
+        }
+        return prevVal;
+    }
+}
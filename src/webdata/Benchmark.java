@@ -0,0 +1,325 @@
+package webdata;
+
+import webdata.utils.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Micro benchmarks comparing the current implementations with the ones they replaced.
+ * Usage: Benchmark inputFile
+ * (compile src-vector and run with "--add-modules jdk.incubator.vector" to benchmark the vector decoder too)
+ */
+public class Benchmark {
+
+    private static final int ROUNDS = 5;
+    private static final double MB = 1 << 20;
+
+    private static final int MERGE_RUNS = 64;
+    private static final int MERGE_TERMS = 2000;
+    private static final int MERGE_REVIEWS_PER_TERM = 50;
+
+    private static final int CODEC_LISTS = 1000;
+    private static final int CODEC_LIST_LENGTH = 1000;
+
+    private static final byte[] PRODUCT_ID_PREFIX = "product/productId: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_PREFIX = "review/text:".getBytes(StandardCharsets.US_ASCII);
+
+    /* Sink for results, so the JIT can't drop the benchmarked work */
+    private static long blackHole = 0;
+
+    public static void main(String[] args) throws IOException {
+        byte[] input = Files.readAllBytes(Paths.get(args[0]));
+        tokenizer(input);
+        merge();
+        codec();
+        postingCodecs(args[0]);
+        lookup(args[0], input);
+        System.err.println("(ignore) " + blackHole);
+    }
+
+    /**
+     * Print the result of a single benchmark round.
+     */
+    private static void report(String name, int round, long startNanos, double amount, String unit) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.err.printf("%-40s round %d: %.1f %s%n", name, round, amount / seconds, unit);
+    }
+
+    /**
+     * Tokenizer throughput (MB/s of review file), against splitting the concatenated review text with a regex.
+     */
+    private static void tokenizer(byte[] input) throws IOException {
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input)))) {
+                String line;
+                String textBuffer = "";
+                boolean textFlag = false;
+                while ((line = reader.readLine()) != null) {
+                    if (textFlag && !line.startsWith("product/productId: ")) {
+                        textBuffer = textBuffer.concat(" ").concat(line);
+                        continue;
+                    }
+                    if (line.startsWith("product/productId: ")) {
+                        textFlag = false;
+                        blackHole += textBuffer.toLowerCase().split("[^A-Za-z0-9]+").length;
+                    }
+                    if (line.startsWith("review/text:")) {
+                        textFlag = true;
+                        textBuffer = line.substring(12);
+                    }
+                }
+                blackHole += textBuffer.toLowerCase().split("[^A-Za-z0-9]+").length;
+            }
+            report("regex split", round, start, input.length / MB, "MB/s");
+        }
+
+        Tokenizer.TokenConsumer consumer = (data, from, length) -> blackHole += length;
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            try (LineReader reader = new LineReader(new ByteArrayInputStream(input), 1 << 20)) {
+                boolean textFlag = false;
+                while (reader.readLine()) {
+                    if (reader.startsWith(PRODUCT_ID_PREFIX)) {
+                        textFlag = false;
+                    } else if (textFlag) {
+                        blackHole += Tokenizer.tokenize(reader.getBuffer(), reader.getLineStart(),
+                                                        reader.getLineEnd(), consumer);
+                    } else if (reader.startsWith(TEXT_PREFIX)) {
+                        textFlag = true;
+                        blackHole += Tokenizer.tokenize(reader.getBuffer(), reader.getLineStart() + TEXT_PREFIX.length,
+                                                        reader.getLineEnd(), consumer);
+                    }
+                }
+            }
+            report("byte tokenizer", round, start, input.length / MB, "MB/s");
+        }
+    }
+
+    /**
+     * K-way merge throughput (records/s) of the loser tree, against the heap of readers it replaced.
+     */
+    private static void merge() throws IOException {
+        Path dir = Files.createTempDirectory("merge");
+        String[] runs = new String[MERGE_RUNS];
+        for (int run = 0; run < MERGE_RUNS; ++run) {
+            runs[run] = dir.resolve("r" + run).toString();
+            try (RunFileWriter writer = new RunFileWriter(runs[run])) {
+                for (int term = 0; term < MERGE_TERMS; ++term) {
+                    for (int i = 0; i < MERGE_REVIEWS_PER_TERM; ++i) {
+                        writer.write(term, i * MERGE_RUNS + run + 1, 1 + i % 3);
+                    }
+                }
+            }
+        }
+        String out = dir.resolve("out").toString();
+        double records = (double) MERGE_RUNS * MERGE_TERMS * MERGE_REVIEWS_PER_TERM;
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            PriorityQueue<ReaderWrapper> heapOfReaders = new PriorityQueue<>();
+            for (String run: runs) {
+                RunFileReader reader = new RunFileReader(run, 1 << 16);
+                reader.next();
+                heapOfReaders.add(new ReaderWrapper(reader, new Line(reader.getTerm(), reader.getReviewId(),
+                                                                     reader.getFrequency()), null));
+            }
+            try (RunFileWriter writer = new RunFileWriter(out)) {
+                while (!heapOfReaders.isEmpty()) {
+                    ReaderWrapper minReader = heapOfReaders.poll();
+                    Line line = minReader.getCurrLine();
+                    writer.write(line.getTerm(), line.getReviewId(), line.getFrequency());
+                    if (minReader.advancePtr()) {
+                        heapOfReaders.add(minReader);
+                    }
+                }
+                blackHole += writer.getNumOfRecords();
+            }
+            report("priority queue merge", round, start, records, "records/s");
+        }
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            RunFileReader[] readers = new RunFileReader[runs.length];
+            for (int i = 0; i < runs.length; ++i) {
+                readers[i] = new RunFileReader(runs[i], 1 << 16);
+            }
+            LoserTree tree = new LoserTree(readers, null);
+            try (RunFileWriter writer = new RunFileWriter(out)) {
+                while (tree.hasNext()) {
+                    writer.write(tree.getTerm(), tree.getReviewId(), tree.getFrequency());
+                    tree.advance();
+                }
+                blackHole += writer.getNumOfRecords();
+            }
+            report("loser tree merge", round, start, records, "records/s");
+        }
+
+        for (String run: runs) {
+            Files.delete(Paths.get(run));
+        }
+        Files.delete(Paths.get(out));
+        Files.delete(dir);
+    }
+
+    /**
+     * Posting list decoding throughput (values/s) of the primitive group varint decoder, against the boxed one it
+     * replaced, and of the PForDelta codec with the scalar and the best (vector, if available) unpacker. The lists
+     * are review ids with gaps of 1 to 1000.
+     */
+    private static void codec() {
+        Random random = new Random(0);
+        ByteBuffer encoded = ByteBuffer.allocate(CODEC_LISTS * Encoder.maxEncodedLength(CODEC_LIST_LENGTH));
+        int[] values = new int[CODEC_LIST_LENGTH];
+        int[] ends = new int[CODEC_LISTS];
+        for (int list = 0; list < CODEC_LISTS; ++list) {
+            int reviewId = 0;
+            for (int i = 0; i < CODEC_LIST_LENGTH; ++i) {
+                reviewId += 1 + random.nextInt(1000);
+                values[i] = reviewId;
+            }
+            Encoder.encode(values, CODEC_LIST_LENGTH, true, encoded);
+            ends[list] = encoded.position();
+        }
+        byte[] bytes = Arrays.copyOf(encoded.array(), encoded.position());
+        double numOfValues = (double) CODEC_LISTS * CODEC_LIST_LENGTH;
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            long[] endPtr = new long[1];
+            for (int list = 0; list < CODEC_LISTS; ++list) {
+                int from = (list == 0) ? 0 : ends[list - 1];
+                Integer[] decoded = Encoder.decode(Arrays.copyOfRange(bytes, from, ends[list]), true, endPtr);
+                blackHole += decoded[decoded.length - 1];
+            }
+            report("boxed group varint decode", round, start, numOfValues, "values/s");
+        }
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            for (int list = 0; list < CODEC_LISTS; ++list) {
+                Encoder.decode(in, true, values);
+                blackHole += values[CODEC_LIST_LENGTH - 1];
+            }
+            report("primitive group varint decode", round, start, numOfValues, "values/s");
+        }
+
+        PostingCodec[] pforCodecs = {PostingCodec.pforDelta(BitUnpacker.SCALAR), PostingCodec.PFOR_DELTA};
+        ByteBuffer pforEncoded = ByteBuffer.allocate(CODEC_LISTS * PostingCodec.PFOR_DELTA.maxEncodedLength(
+                CODEC_LIST_LENGTH));
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        for (int list = 0; list < CODEC_LISTS; ++list) {
+            Encoder.decode(in, true, values);
+            PostingCodec.PFOR_DELTA.encode(values, CODEC_LIST_LENGTH, true, pforEncoded);
+        }
+        for (PostingCodec codec: pforCodecs) {
+            for (int round = 0; round < ROUNDS; ++round) {
+                long start = System.nanoTime();
+                ByteBuffer pforIn = ByteBuffer.wrap(pforEncoded.array(), 0, pforEncoded.position());
+                for (int list = 0; list < CODEC_LISTS; ++list) {
+                    codec.decode(pforIn, true, values);
+                    blackHole += values[CODEC_LIST_LENGTH - 1];
+                }
+                report(codec.getName() + " decode", round, start, numOfValues, "values/s");
+            }
+        }
+    }
+
+    /**
+     * Size of the posting lists of the input and their decoding throughput (values/s), for every posting codec.
+     */
+    private static void postingCodecs(String inputFile) throws IOException {
+        for (PostingCodec codec: new PostingCodec[] {PostingCodec.GROUP_VARINT, PostingCodec.pforDelta(BitUnpacker.SCALAR),
+                                                     PostingCodec.PFOR_DELTA}) {
+            Path dir = Files.createTempDirectory("index");
+            IndexWriter writer = new IndexWriter();
+            writer.setPostingCodec(codec);
+            writer.write(inputFile, dir.toString());
+            System.err.printf("%-40s %d bytes%n", codec.getName() + " posting lists", writer.getPostingListsSize());
+
+            Dictionary dict = Dictionary.open(dir.resolve(IndexWriter.tokenDictFileName).toString(), dir.toString());
+            try (FileChannel postings = FileChannel.open(dir.resolve(IndexWriter.tokenPostingListFileName))) {
+                for (int round = 0; round < ROUNDS; ++round) {
+                    long start = System.nanoTime();
+                    long numOfValues = 0;
+                    for (int i = 0; i < dict.getNumOfTerms(); ++i) {
+                        long nextPos = (i + 1 < dict.getNumOfTerms()) ? dict.getPostingPtr(i + 1) : postings.size();
+                        PostingsCursor cursor = new PostingsCursor(postings, dict.getPostingPtr(i), nextPos, codec,
+                                                                   true, Dictionary.SKIP_INTERVAL);
+                        while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                            blackHole += cursor.freq();
+                        }
+                        numOfValues += 2 * cursor.size();
+                    }
+                    report(codec.getName() + " decode", round, start, numOfValues, "values/s");
+                }
+            }
+            writer.removeIndex(dir.toString());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * Dictionary lookup throughput (lookups/s) of the byte comparing search, against the String building search it
+     * replaced, and of the perfect hash and the Bloom filter. Half of the lookups are of tokens of the input and half
+     * are misses.
+     */
+    private static void lookup(String inputFile, byte[] input) throws IOException {
+        HashSet<String> tokens = new HashSet<>();
+        Tokenizer.tokenize(input.clone(), 0, input.length,
+                           (data, from, length) -> tokens.add(new String(data, from, length, StandardCharsets.US_ASCII)));
+        ArrayList<String> queries = new ArrayList<>();
+        for (String token: tokens) {
+            queries.add(token);
+            queries.add(token + "q");
+        }
+
+        Path dir = Files.createTempDirectory("index");
+        IndexWriter writer = new IndexWriter();
+        writer.write(inputFile, dir.toString());
+        Dictionary dict = Dictionary.open(dir.resolve(IndexWriter.tokenDictFileName).toString(), dir.toString());
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (String query: queries) {
+                blackHole += dict.searchTermByStrings(query);
+            }
+            report("String building lookup", round, start, queries.size(), "lookups/s");
+        }
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (String query: queries) {
+                blackHole += dict.searchTerm(query);
+            }
+            report("byte comparing lookup", round, start, queries.size(), "lookups/s");
+        }
+        MinimalPerfectHash perfectHash = MinimalPerfectHash.build(dict.getTerms());
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (String query: queries) {
+                blackHole += perfectHash.lookup(query);
+            }
+            report("perfect hash lookup", round, start, queries.size(), "lookups/s");
+        }
+        BloomFilter filter = BloomFilter.build(dict.getTerms(), 0.01);
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (String query: queries) {
+                blackHole += filter.mightContain(query) ? dict.searchTerm(query) : -1;
+            }
+            report("Bloom filtered lookup", round, start, queries.size(), "lookups/s");
+        }
+        writer.removeIndex(dir.toString());
+    }
+}
@@ -1,26 +1,103 @@
 package webdata;
 
-import webdata.utils.Encoder;
-import webdata.utils.Utils;
+import webdata.utils.BloomFilter;
+import webdata.utils.LevenshteinAutomaton;
+import webdata.utils.MinimalPerfectHash;
+import webdata.utils.PostingCodec;
+import webdata.utils.PostingSource;
+import webdata.utils.ProductIdTable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * An object representing an index Lexicon
+ * The lexicon is kept in a single buffer with the same layout as it's file, so a dictionary that was just built and
+ * a dictionary that was opened (by mapping it's file to memory, without reading it) are queried the same way.
+ * The layout (big endian) is a header of HEADER_SIZE bytes:
+ * magic, version, isProduct, number of terms, number of blocks, terms per block, number of term bytes, the
+ * number of bits of a term record and of each of it's fields, the id of the codec of the posting lists and the number
+ * of postings per skip block of the posting lists (ints),
+ * followed by the position of every block in the term bytes (int[]) and the postingPtr of it's first term (long[]),
+ * the term records, and the front coded term bytes.
+ * The term records have a fixed size, so the metadata of a term is found in O(1): frequency, the distance of
+ * postingPtr from the one of the first term of the block, length and prefixSize, each packed to the number of bits
+ * of the largest value of the field. The records are followed by Long.BYTES bytes of padding, so every field can be
+ * read with a single long read.
+ * The posting lists are written in skip blocks (see PostingsCursor), and read through a PostingsCursor.
  */
-public class Dictionary implements Serializable {
+public class Dictionary {
 
     private static final int K = 100;
+    private static final int MAGIC = 0x57444943;  // "WDIC"
+    static final int VERSION = 4;
+    private static final int HEADER_SIZE = 14 * Integer.BYTES;
+    /* The number of postings per skip block of the posting lists */
+    static final int SKIP_INTERVAL = 128;
+    /* A field of a term record is read with a single long read, at any bit offset within it's first byte */
+    private static final int MAX_FIELD_BITS = Long.SIZE - Byte.SIZE + 1;
+    /* The optional perfect hash of the terms is saved next to the dictionary, in a file with this suffix */
+    static final String PERFECT_HASH_SUFFIX = ".mph";
+    /* The optional Bloom filter of the terms is saved next to the dictionary, in a file with this suffix */
+    static final String BLOOM_FILTER_SUFFIX = ".blm";
+    /* The table of fixed pattern product ids is saved next to the product dictionary, in a file with this suffix */
+    static final String PRODUCT_ID_TABLE_SUFFIX = ".pid";
+
     private boolean isProduct;
-    private String concatStr = "";
-    private int[] termPtr;
     private int numOfBlocks;
     private int numOfTerms;
     private String path;
+    private PostingCodec codec;
+    private int skipInterval = SKIP_INTERVAL;
+
+    /* The lexicon (only it's header and block pointers in paged mode), and the offsets of it's arrays */
+    private ByteBuffer data;
+    private int termPtrOffset;
+    private int blockPostingPtrOffset;
+    private int recordsOffset;
+    private int termsOffset;
+
+    /* The number of bits of a term record, and of it's fields */
+    private int recordBits;
+    private int frequencyBits;
+    private int postingDeltaBits;
+    private int lengthBits;
+    private int prefixSizeBits;
+    private int termBytesLength;
+
+    /* Maps a term to it's position, if the dictionary has a perfect hash */
+    private MinimalPerfectHash perfectHash = null;
 
+    /* Rejects most terms that are not in the dictionary before they are searched, if the dictionary has a filter */
+    private BloomFilter filter = null;
+
+    /* Maps a product id to it's position, if all product ids fit the fixed Amazon pattern */
+    private ProductIdTable productIdTable = null;
+
+    /* In paged mode only the first term of every block is resident, the blocks are read from the file on demand
+       and the most recently used ones are cached */
+    private FileChannel channel = null;
+    private byte[] heads;
+    private int[] headPtr;
+    private LinkedHashMap<Integer, Block> cache = null;
+    private volatile Block lastBlock = null;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    /* The posting file, opened when a posting list is first read and read from while the dictionary is used */
+    private FileChannel postingChannel = null;
+
+    /* Only used while the dictionary is built */
+    private int[] termPtr;
     private int[] frequency;
     private long[] postingPtr;
     private short[] length;
@@ -28,16 +105,56 @@ public class Dictionary implements Serializable {
 
     private long filePointer = 0;
 
+    /* The postings of the term being built, and the buffer they are encoded to */
+    private int[] termReviews = new int[16];
+    private int[] termFrequencies = new int[16];
+    private int numOfTermPostings = 0;
+    private int[] blockValues = new int[SKIP_INTERVAL];
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+
+    /**
+     * The metadata and term bytes of a block, read from the dictionary file in paged mode.
+     */
+    private static final class Block {
+        final int number;
+        final int firstTerm;
+        final int termStart;
+        final int[] frequency;
+        final long[] postingPtr;
+        final short[] length;
+        final short[] prefixSize;
+        final byte[] terms;
+
+        Block(int number, int firstTerm, int numOfTerms, int termStart, int termBytes) {
+            this.number = number;
+            this.firstTerm = firstTerm;
+            this.termStart = termStart;
+            frequency = new int[numOfTerms];
+            postingPtr = new long[numOfTerms];
+            length = new short[numOfTerms];
+            prefixSize = new short[numOfTerms];
+            terms = new byte[termBytes];
+        }
+
+        /**
+         * Check if the term bytes of the block include the given position
+         */
+        boolean hasTermByte(int pos) { return termStart <= pos && pos < termStart + terms.length; }
+    }
+
     /**
      * Constructor
-     * @param numOfTerms Number of terms in the file
-     * @param sortedTermsFile The sorted file of terms
+     * @param numOfTerms Number of terms in the file, or an estimate of it if it is not known in advance
+     * @param sortedTerms The sorted records of the terms (closed once read)
      * @param isProduct Indicates if the term is productId or token
      * @param dir The directory in which the dictionary is saved
      * @param mapping A map of a number to term (i is mapped to the string at index i)
+     * @param codec The codec of the posting lists
      */
-    Dictionary(int numOfTerms, String sortedTermsFile, Boolean isProduct, String dir, ArrayList<String> mapping) {
+    Dictionary(int numOfTerms, PostingSource sortedTerms, Boolean isProduct, String dir, ArrayList<String> mapping,
+               PostingCodec codec) {
         this.isProduct = isProduct;
+        this.codec = codec;
         this.numOfTerms = numOfTerms;
         numOfBlocks = (int)Math.ceil(numOfTerms / (double)K);
         termPtr = new int[numOfBlocks];
@@ -52,13 +169,483 @@ public class Dictionary implements Serializable {
         prefixSize = new short[numOfTerms];
 
         try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(new File(path)))) {
-            build(sortedTermsFile, bos, mapping);
+            build(sortedTerms, bos, mapping);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
     }
 
+    /**
+     * Constructor of a dictionary that was already built
+     * @param data The lexicon
+     * @param dir The directory of the index
+     * @throws IOException If the lexicon is not in a supported format
+     */
+    private Dictionary(ByteBuffer data, String dir) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a dictionary file");
+        }
+        if (data.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported dictionary version " + data.getInt(Integer.BYTES));
+        }
+        if (data.getInt(5 * Integer.BYTES) != K) {
+            throw new IOException("Unsupported dictionary block size " + data.getInt(5 * Integer.BYTES));
+        }
+        isProduct = data.getInt(2 * Integer.BYTES) != 0;
+        codec = PostingCodec.forId(data.getInt(12 * Integer.BYTES));
+        skipInterval = data.getInt(13 * Integer.BYTES);
+        path = dir + File.separator +
+                (isProduct ? IndexWriter.productPostingListFileName : IndexWriter.tokenPostingListFileName);
+        setData(data);
+    }
+
+    /**
+     * Open a dictionary file by mapping it to memory (read only), with it's perfect hash, Bloom filter and product id
+     * table if it has them. Nothing is read until the dictionary is queried.
+     * @param file The dictionary file
+     * @param dir The directory of the index
+     * @return The dictionary
+     * @throws IOException
+     */
+    static Dictionary open(String file, String dir) throws IOException {
+        return open(file, dir, 0);
+    }
+
+    /**
+     * Open a dictionary file, with it's perfect hash, Bloom filter and product id table if it has them.
+     * If cacheSize is positive the dictionary is opened in paged mode: only the block pointers and the first term of
+     * every block are read to memory, and the other terms and their metadata are read a block at a time when they
+     * are queried, keeping the cacheSize most recently used blocks. Otherwise the file is mapped to memory.
+     * @param file The dictionary file
+     * @param dir The directory of the index
+     * @param cacheSize The number of blocks to cache in paged mode, or 0 to map the file
+     * @return The dictionary
+     * @throws IOException
+     */
+    static Dictionary open(String file, String dir, int cacheSize) throws IOException {
+        Dictionary dict;
+        if (cacheSize > 0) {
+            FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            int numOfBlocks = readRange(channel, 0, HEADER_SIZE).getInt(4 * Integer.BYTES);
+            dict = new Dictionary(readRange(channel, 0, HEADER_SIZE + numOfBlocks * (Integer.BYTES + Long.BYTES)),
+                                  dir);
+            dict.openPages(channel, cacheSize);
+        } else {
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                dict = new Dictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), dir);
+            }
+        }
+        if (Files.exists(Paths.get(file + PERFECT_HASH_SUFFIX))) {
+            dict.perfectHash = MinimalPerfectHash.open(file + PERFECT_HASH_SUFFIX);
+            if (dict.perfectHash.size() != dict.numOfTerms) {
+                throw new IOException("The perfect hash does not match the dictionary " + file);
+            }
+        }
+        if (Files.exists(Paths.get(file + BLOOM_FILTER_SUFFIX))) {
+            dict.filter = BloomFilter.open(file + BLOOM_FILTER_SUFFIX);
+            if (dict.filter.size() != dict.numOfTerms) {
+                throw new IOException("The Bloom filter does not match the dictionary " + file);
+            }
+        }
+        if (Files.exists(Paths.get(file + PRODUCT_ID_TABLE_SUFFIX))) {
+            dict.productIdTable = ProductIdTable.open(file + PRODUCT_ID_TABLE_SUFFIX);
+            if (dict.productIdTable.size() != dict.numOfTerms) {
+                throw new IOException("The product id table does not match the dictionary " + file);
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * Read the first term of every block, and set up the block cache.
+     * @param channel The dictionary file, read from while the dictionary is used
+     * @param cacheSize The number of blocks to cache
+     * @throws IOException
+     */
+    private void openPages(FileChannel channel, int cacheSize) throws IOException {
+        this.channel = channel;
+        headPtr = new int[numOfBlocks + 1];
+        ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+        for (int block = 0; block < numOfBlocks; ++block) {
+            long bit = (long) block * K * recordBits + frequencyBits + postingDeltaBits;
+            int len = (int) getBits(readRange(channel, recordsOffset + (bit >>> 3), Long.BYTES), 0, bit & 7,
+                                    lengthBits);
+            headBytes.write(readRange(channel, termsOffset + (long) getTermPtr(block), len).array(), 0, len);
+            headPtr[block + 1] = headPtr[block] + len;
+        }
+        heads = headBytes.toByteArray();
+        cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Read a range of a file.
+     * @param channel The file
+     * @param pos The start of the range
+     * @param size The size of the range
+     * @return A buffer holding the range
+     * @throws IOException
+     */
+    private static ByteBuffer readRange(FileChannel channel, long pos, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        readFully(channel, pos, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Fill a buffer (from it's position to it's limit) with the bytes of a file from the given position.
+     * @param channel The file
+     * @param pos The position in the file
+     * @param buffer The buffer
+     * @throws IOException If the file ends before the buffer is full
+     */
+    static void readFully(FileChannel channel, long pos, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pos + buffer.position() - start) < 0) {
+                throw new EOFException("The file ends before " + (pos + buffer.limit() - start));
+            }
+        }
+    }
+
+    /**
+     * Return the given block in paged mode, reading it from the file if it is not cached. A block is counted as a
+     * cache hit or miss when it is accessed after another block was.
+     * @param block The block
+     * @return The block
+     */
+    private Block getBlock(int block) {
+        Block last = lastBlock;
+        if (last != null && last.number == block) {
+            return last;
+        }
+        synchronized (cache) {
+            Block b = cache.get(block);
+            if (b == null) {
+                ++cacheMisses;
+                b = readBlock(block);
+                cache.put(block, b);
+            } else {
+                ++cacheHits;
+            }
+            lastBlock = b;
+            return b;
+        }
+    }
+
+    /**
+     * Return the block holding the term byte at the given position, in paged mode.
+     */
+    private Block getBlockOfTermByte(int pos) {
+        Block last = lastBlock;
+        if (last != null && last.hasTermByte(pos)) {
+            return last;
+        }
+        int left = 0;
+        int right = numOfBlocks - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (getTermPtr(mid) <= pos) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return getBlock(left);
+    }
+
+    /**
+     * Read a block from the file.
+     * @param block The block
+     * @return The block
+     */
+    private Block readBlock(int block) {
+        int first = block * K;
+        int n = Math.min(numOfTerms, first + K) - first;
+        int termStart = getTermPtr(block);
+        int termEnd = (block + 1 < numOfBlocks) ? getTermPtr(block + 1) : termBytesLength;
+        Block b = new Block(block, first, n, termStart, termEnd - termStart);
+        try {
+            long firstBit = (long) first * recordBits;
+            long endBit = (long) (first + n) * recordBits;
+            ByteBuffer records = readRange(channel, recordsOffset + (firstBit >>> 3),
+                                           (int) (((endBit + 7) >>> 3) - (firstBit >>> 3)) + Long.BYTES);
+            long basePtr = getBlockPostingPtr(block);
+            for (int j = 0; j < n; ++j) {
+                long bit = (firstBit & 7) + (long) j * recordBits;
+                b.frequency[j] = (int) getBits(records, 0, bit, frequencyBits);
+                bit += frequencyBits;
+                b.postingPtr[j] = basePtr + getBits(records, 0, bit, postingDeltaBits);
+                bit += postingDeltaBits;
+                b.length[j] = (short) getBits(records, 0, bit, lengthBits);
+                bit += lengthBits;
+                b.prefixSize[j] = (short) getBits(records, 0, bit, prefixSizeBits);
+            }
+            readRange(channel, termsOffset + (long) termStart, b.terms.length).get(b.terms);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        return b;
+    }
+
+    /**
+     * Return the number of block accesses that found the block in the cache (in paged mode)
+     */
+    long getCacheHits() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+
+    /**
+     * Return the number of block accesses that read the block from the file (in paged mode)
+     */
+    long getCacheMisses() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+
+    /**
+     * Close the files the dictionary reads from while it is used: the dictionary file in paged mode, and the
+     * posting file once a posting list was read. The dictionary can't be queried after it is closed.
+     * @throws IOException
+     */
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (postingChannel != null) {
+            postingChannel.close();
+        }
+    }
+
+    /**
+     * Build a perfect hash of the terms, use it for searching and save it next to the dictionary.
+     * @param file The dictionary file
+     * @throws IOException
+     */
+    void savePerfectHash(String file) throws IOException {
+        perfectHash = MinimalPerfectHash.build(getTerms());
+        perfectHash.save(file + PERFECT_HASH_SUFFIX);
+    }
+
+    /**
+     * Build a table of the product ids if all of them fit the fixed Amazon pattern, use it for searching and save it
+     * next to the dictionary.
+     * @param file The dictionary file
+     * @return True if the table was built, False if some id doesn't fit the pattern
+     * @throws IOException
+     */
+    boolean saveProductIdTable(String file) throws IOException {
+        productIdTable = ProductIdTable.build(getTerms());
+        if (productIdTable == null) {
+            return false;
+        }
+        productIdTable.save(file + PRODUCT_ID_TABLE_SUFFIX);
+        return true;
+    }
+
+    /**
+     * Build a Bloom filter of the terms, use it for searching and save it next to the dictionary.
+     * @param file The dictionary file
+     * @param falsePositiveRate The rate of terms not in the dictionary that pass the filter
+     * @return The size of the filter in bytes
+     * @throws IOException
+     */
+    long saveBloomFilter(String file, double falsePositiveRate) throws IOException {
+        filter = BloomFilter.build(getTerms(), falsePositiveRate);
+        filter.save(file + BLOOM_FILTER_SUFFIX);
+        return filter.getSizeInBytes();
+    }
+
+    /**
+     * Decode all terms, by their order.
+     * @return The terms
+     */
+    ArrayList<String> getTerms() {
+        ArrayList<String> terms = new ArrayList<>(numOfTerms);
+        StringBuilder term = new StringBuilder();
+        int ptr = 0;
+        for (int i = 0; i < numOfTerms; ++i) {
+            term.setLength(getPrefixSize(i));
+            for (int end = ptr + getLength(i) - getPrefixSize(i); ptr < end; ++ptr) {
+                term.append((char) getTermByte(ptr));
+            }
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    /**
+     * Decode the term at the given position.
+     * @param i The position of the term in the dictionary
+     * @return The term
+     */
+    String getTerm(int i) {
+        int block = i / K;
+        StringBuilder term = new StringBuilder();
+        int ptr = getTermPtr(block);
+        for (int j = block * K; j <= i; ++j) {
+            term.setLength(getPrefixSize(j));
+            for (int end = ptr + getLength(j) - getPrefixSize(j); ptr < end; ++ptr) {
+                term.append((char) getTermByte(ptr));
+            }
+        }
+        return term.toString();
+    }
+
+    /**
+     * Save the dictionary to a file.
+     * @param file The dictionary file
+     * @throws IOException
+     */
+    void save(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Lay the built arrays and the front coded terms out in a buffer (off heap), and drop the arrays.
+     * @param terms The front coded terms
+     */
+    private void layout(String terms) {
+        byte[] termBytes = terms.getBytes(StandardCharsets.ISO_8859_1);
+
+        /* Pack every field to the bits of it's largest value */
+        long maxFrequency = 0;
+        long maxPostingDelta = 0;
+        long maxLength = 0;
+        long maxPrefixSize = 0;
+        for (int i = 0; i < numOfTerms; ++i) {
+            maxFrequency = Math.max(maxFrequency, frequency[i]);
+            maxPostingDelta = Math.max(maxPostingDelta, postingPtr[i] - postingPtr[i - i % K]);
+            maxLength = Math.max(maxLength, length[i]);
+            maxPrefixSize = Math.max(maxPrefixSize, prefixSize[i]);
+        }
+        int fBits = bitsOf(maxFrequency);
+        int dBits = bitsOf(maxPostingDelta);
+        int lBits = bitsOf(maxLength);
+        int pBits = bitsOf(maxPrefixSize);
+        int rBits = fBits + dBits + lBits + pBits;
+        if (dBits > MAX_FIELD_BITS) {
+            throw new IllegalStateException("Posting lists too large: " + maxPostingDelta + " bytes in a block");
+        }
+
+        long recordBytes = ((long) numOfTerms * rBits + 7) / 8 + Long.BYTES;
+        long size = HEADER_SIZE + (long) numOfBlocks * (Integer.BYTES + Long.BYTES) + recordBytes + termBytes.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Dictionary too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(isProduct ? 1 : 0).putInt(numOfTerms).putInt(numOfBlocks)
+              .putInt(K).putInt(termBytes.length).putInt(rBits).putInt(fBits).putInt(dBits).putInt(lBits)
+              .putInt(pBits).putInt(codec.getId()).putInt(skipInterval);
+        for (int ptr: termPtr) {
+            buffer.putInt(ptr);
+        }
+        for (int block = 0; block < numOfBlocks; ++block) {
+            buffer.putLong(postingPtr[block * K]);
+        }
+        int recordsStart = buffer.position();
+        long bit = 0;
+        for (int i = 0; i < numOfTerms; ++i) {
+            putBits(buffer, recordsStart, bit, fBits, frequency[i]);
+            bit += fBits;
+            putBits(buffer, recordsStart, bit, dBits, postingPtr[i] - postingPtr[i - i % K]);
+            bit += dBits;
+            putBits(buffer, recordsStart, bit, lBits, length[i]);
+            bit += lBits;
+            putBits(buffer, recordsStart, bit, pBits, prefixSize[i]);
+            bit += pBits;
+        }
+        buffer.position(recordsStart + (int) recordBytes);
+        buffer.put(termBytes);
+        setData(buffer);
+        termPtr = null;
+        frequency = null;
+        postingPtr = null;
+        length = null;
+        prefixSize = null;
+    }
+
+    /**
+     * Return the number of bits needed to write the given (non negative) value
+     */
+    private static int bitsOf(long value) {
+        return Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Write a value to the given number of bits of a buffer, which are expected to be 0.
+     * @param buffer The buffer
+     * @param base The position in the buffer the bit offset is relative to
+     * @param bit The bit offset of the value
+     * @param bits The number of bits of the value (at most MAX_FIELD_BITS)
+     * @param value The value
+     */
+    private static void putBits(ByteBuffer buffer, int base, long bit, int bits, long value) {
+        if (bits > 0) {
+            int pos = base + (int) (bit >>> 3);
+            buffer.putLong(pos, buffer.getLong(pos) | (value << (Long.SIZE - bits - (int) (bit & 7))));
+        }
+    }
+
+    /**
+     * Read a value of the given number of bits from a buffer.
+     * @param buffer The buffer
+     * @param base The position in the buffer the bit offset is relative to
+     * @param bit The bit offset of the value
+     * @param bits The number of bits of the value (at most MAX_FIELD_BITS)
+     * @return The value
+     */
+    private static long getBits(ByteBuffer buffer, int base, long bit, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        long word = buffer.getLong(base + (int) (bit >>> 3));
+        return (word >>> (Long.SIZE - bits - (int) (bit & 7))) & ((1L << bits) - 1);
+    }
+
+    /**
+     * Set the lexicon buffer, and the offsets of it's arrays by the counts in it's header.
+     * @param data The lexicon
+     */
+    private void setData(ByteBuffer data) {
+        this.data = data;
+        numOfTerms = data.getInt(3 * Integer.BYTES);
+        numOfBlocks = data.getInt(4 * Integer.BYTES);
+        termBytesLength = data.getInt(6 * Integer.BYTES);
+        recordBits = data.getInt(7 * Integer.BYTES);
+        frequencyBits = data.getInt(8 * Integer.BYTES);
+        postingDeltaBits = data.getInt(9 * Integer.BYTES);
+        lengthBits = data.getInt(10 * Integer.BYTES);
+        prefixSizeBits = data.getInt(11 * Integer.BYTES);
+        termPtrOffset = HEADER_SIZE;
+        blockPostingPtrOffset = termPtrOffset + numOfBlocks * Integer.BYTES;
+        recordsOffset = blockPostingPtrOffset + numOfBlocks * Long.BYTES;
+        termsOffset = recordsOffset + (int) (((long) numOfTerms * recordBits + 7) / 8) + Long.BYTES;
+    }
+
     /**
      * @return The number of terms in this dictionary (without duplicates)
      */
@@ -70,31 +657,23 @@ public class Dictionary implements Serializable {
      * Build the concatenated String with all known tokens.
      * Update all data structures with it's info.
      */
-    private void build(String sortedTermsFile, BufferedOutputStream bos, ArrayList<String> mapping) {
+    private void build(PostingSource sortedTerms, BufferedOutputStream bos, ArrayList<String> mapping) {
         StringBuilder sb = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(sortedTermsFile)))){
-            String line;
-            TreeMap<Integer, Integer> termData = new TreeMap<>();
+        try (PostingSource reader = sortedTerms){
             String prevTerm = "";
             int i = -1;
 
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                webdata.utils.Line lineObject = new webdata.utils.Line(line);
-                String term = mapping.get(lineObject.getTerm());
-                int reviewId = lineObject.getReviewId();
-                int frequency = lineObject.getFrequency();
+            while (reader.next()) {
+                String term = mapping.get(reader.getTerm());
+                int reviewId = reader.getReviewId();
+                int frequency = reader.getFrequency();
 
                 if (!term.equals(prevTerm)) {
                     if (i > -1) {
-                        buildFrequency(termData, i);
-                        buildPostingList(termData, i, bos);
-                        termData = new TreeMap<>();
+                        buildPostingList(i, bos);
                     }
                     ++i;
+                    ensureCapacity(i);
 
                     if (i % K == 0) {
                         termPtr[(i / K)] = sb.length();
@@ -111,16 +690,14 @@ public class Dictionary implements Serializable {
 
                     prevTerm = term;
                 }
-                termData.put(reviewId, frequency);
+                addPosting(reviewId, frequency);
             }
 
-            concatStr = sb.toString();
-
             if (i > -1) {
-                buildFrequency(termData, i);
-                buildPostingList(termData, i, bos);
-                termData = new TreeMap<>();
+                buildPostingList(i, bos);
             }
+            resize(i + 1);
+            layout(sb.toString());
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -128,44 +705,95 @@ public class Dictionary implements Serializable {
     }
 
     /**
-     * Populate the frequency data structure.
-     * @param termData The data for the currently processed term
-     * @param i Index to add at
+     * Grow the term data structures if they can't hold the term at the given index.
+     * @param i Index of the term
      */
-    private void buildFrequency(TreeMap<Integer, Integer> termData, int i) {
-        Collection<Integer> allFrequencies = termData.values();
-        frequency[i] =  allFrequencies.stream().mapToInt(Integer::intValue).sum();  // Sum all values
+    private void ensureCapacity(int i) {
+        if (i >= frequency.length) {
+            resize(Math.max(K, frequency.length * 2));
+        }
+    }
+
+    /**
+     * Set the size of the term data structures, and the number of terms and blocks accordingly.
+     * @param size The new size
+     */
+    private void resize(int size) {
+        if (size != frequency.length) {
+            frequency = Arrays.copyOf(frequency, size);
+            postingPtr = Arrays.copyOf(postingPtr, size);
+            length = Arrays.copyOf(length, size);
+            prefixSize = Arrays.copyOf(prefixSize, size);
+        }
+        numOfTerms = size;
+        numOfBlocks = (int)Math.ceil(numOfTerms / (double)K);
+        if (numOfBlocks != termPtr.length) {
+            termPtr = Arrays.copyOf(termPtr, numOfBlocks);
+        }
     }
 
     /**
-     * Populate the posting list data structure.
-     * @param termData The data for the currently processed term
-     * @param i Index to add at
+     * Add a posting of the term being built. The postings of a term come sorted by review.
+     * @param reviewId The review
+     * @param freq The frequency of the term in the review
      */
-    private void buildPostingList(TreeMap<Integer, Integer> termData, int i, BufferedOutputStream bos)
-            throws IOException{
-        ArrayList<Integer> reviews = new ArrayList<>(termData.keySet());
-        ArrayList<Byte> encodedReviews = Encoder.encode(reviews, true);
-        postingPtr[i] =  write(encodedReviews, bos);
-        if (!isProduct) {
-            ArrayList<Integer> frequencies = new ArrayList<>(termData.values());
-            ArrayList<Byte> encodedFrequencies = Encoder.encode(frequencies, false);
-            write(encodedFrequencies, bos);
+    private void addPosting(int reviewId, int freq) {
+        if (numOfTermPostings == termReviews.length) {
+            termReviews = Arrays.copyOf(termReviews, numOfTermPostings * 2);
+            termFrequencies = Arrays.copyOf(termFrequencies, numOfTermPostings * 2);
         }
+        termReviews[numOfTermPostings] = reviewId;
+        termFrequencies[numOfTermPostings] = freq;
+        ++numOfTermPostings;
     }
 
     /**
-     * Write an array to a file specified in path.
-     * @param arr Array to write
-     * @return Position that written started
+     * Write the posting list of the term being built, and set it's frequency and posting list position.
+     * The list is split to blocks of skipInterval postings, and if there is more than one block it starts with the
+     * number of postings and a skip table (see PostingsCursor).
+     * @param i Index of the term
+     * @param bos The posting list file
      */
-    public long write(ArrayList<Byte> arr, BufferedOutputStream bos) throws IOException{
-            long pos  = filePointer;
-            byte[] arrAsByte = new byte[arr.size()];
-            Utils.toPrimitiveArray(arr, arrAsByte);
-            bos.write(arrAsByte);
-            filePointer += arr.size();
-            return pos;
+    private void buildPostingList(int i, BufferedOutputStream bos) throws IOException {
+        int sum = 0;
+        for (int j = 0; j < numOfTermPostings; ++j) {
+            sum += termFrequencies[j];
+        }
+        frequency[i] = sum;
+
+        int numOfBlocks = (numOfTermPostings + skipInterval - 1) / skipInterval;
+        int maxLength = Integer.BYTES + numOfBlocks * (PostingsCursor.SKIP_ENTRY_SIZE +
+                                                       2 * codec.maxEncodedLength(skipInterval));
+        if (encoded.capacity() < maxLength) {
+            encoded = ByteBuffer.allocate(maxLength);
+        }
+        encoded.clear();
+        int skipTableOffset = Integer.BYTES;
+        int blocksOffset = 0;
+        if (numOfBlocks > 1) {
+            encoded.putInt(numOfTermPostings);
+            blocksOffset = skipTableOffset + numOfBlocks * PostingsCursor.SKIP_ENTRY_SIZE;
+            encoded.position(blocksOffset);
+        }
+        for (int b = 0; b < numOfBlocks; ++b) {
+            int from = b * skipInterval;
+            int n = Math.min(skipInterval, numOfTermPostings - from);
+            System.arraycopy(termReviews, from, blockValues, 0, n);
+            codec.encode(blockValues, n, true, encoded);
+            if (!isProduct) {
+                System.arraycopy(termFrequencies, from, blockValues, 0, n);
+                codec.encode(blockValues, n, false, encoded);
+            }
+            if (numOfBlocks > 1) {
+                encoded.putInt(skipTableOffset + b * PostingsCursor.SKIP_ENTRY_SIZE, termReviews[from + n - 1])
+                       .putInt(skipTableOffset + b * PostingsCursor.SKIP_ENTRY_SIZE + Integer.BYTES,
+                               encoded.position() - blocksOffset);
+            }
+        }
+        bos.write(encoded.array(), 0, encoded.position());
+        postingPtr[i] = filePointer;
+        filePointer += encoded.position();
+        numOfTermPostings = 0;
     }
 
     /**
@@ -173,9 +801,8 @@ public class Dictionary implements Serializable {
      * @param pos Location in file of the relevant posting list
      */
     int readLength(long pos){
-        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")){
-            raf.seek(pos);
-            return raf.readInt();  // Read the first 4 bytes, hence the length of the wanted array
+        try {
+            return readRange(getPostingChannel(), pos, Integer.BYTES).getInt();  // The list starts with it's length
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -184,30 +811,16 @@ public class Dictionary implements Serializable {
     }
 
     /**
-     * Reads the posting list starting at pos
+     * Open a cursor over the posting list starting at pos, which reads the list a block at a time
      * @param pos Location in file of the relevant posting list
-     * @return An Integer array containing the posting list
-     */
-    public Integer[] read(long pos, long nextPos) {
-        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")){
-            nextPos = (nextPos == -1) ? raf.length(): nextPos;
-            raf.seek(pos);
-            int len = raf.readInt();  // Read the first 4 bytes, hence the length of the wanted array
-            raf.seek(pos);  // Reset the pos
-            byte[] byteArray = new byte[(int) (nextPos - pos)];
-            raf.read(byteArray);
-
-            long[] endPtr = new long[1];
-            Integer[] reviews = Encoder.decode(byteArray, true, endPtr);
-            assert (len == reviews.length);
-            if (!isProduct) {
-                raf.seek(pos + endPtr[0]);
-                raf.read(byteArray);
-                Integer[] frequencies = Encoder.decode(byteArray, false, endPtr);
-                return weave(reviews, frequencies);
-            }
-            return reviews;
-
+     * @param nextPos Location in file of the next posting list, or -1 if it is the last one
+     * @return The cursor
+     */
+    PostingsCursor cursor(long pos, long nextPos) {
+        try {
+            FileChannel postings = getPostingChannel();
+            return new PostingsCursor(postings, pos, (nextPos == -1) ? postings.size() : nextPos, codec, !isProduct,
+                                      skipInterval);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -216,31 +829,13 @@ public class Dictionary implements Serializable {
     }
 
     /**
-     * Weave two arrays with elements alternatively inserted into the output.
-     * @param a1 First array
-     * @param a2 Second array
-     * @return The two arrays weaved together
+     * Return the posting file, opening it on the first call
      */
-    private Integer[] weave(Integer[] a1, Integer[] a2) {
-        Integer[] output = new Integer[a1.length + a2.length];
-        int i = 0, j = 0, k = 0;
-
-        // Traverse both array
-        while (i < a1.length && j < a2.length)
-        {
-            output[k++] = a1[i++];
-            output[k++] = a2[j++];
+    private synchronized FileChannel getPostingChannel() throws IOException {
+        if (postingChannel == null) {
+            postingChannel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
         }
-
-        // Store remaining elements of first array
-        while (i < a1.length)
-            output[k++] = a1[i++];
-
-        // Store remaining elements of second array
-        while (j < a2.length)
-            output[k++] = a2[j++];
-
-        return output;
+        return postingChannel;
     }
 
     /**
@@ -261,10 +856,316 @@ public class Dictionary implements Serializable {
 
     /**
      * Search for a term in the dictionary
+     * If the dictionary has a product id table or a perfect hash, the term is looked up in it. Otherwise a term
+     * rejected by the Bloom filter (if there is one) is not searched, and the others are compared to the term bytes
+     * in place, so a search allocates nothing: a binary search over the first terms of the blocks finds the block of
+     * the term, and the block is scanned keeping the length of the prefix the term shares with the previous term, so
+     * only the suffixes that may match are compared.
      * @param term The term to search
-     * @return The position of the term in the concatenated String, or -1 if not found.
+     * @return The position of the term in the dictionary, or -1 if not found.
      */
     int searchTerm(String term) {
+        if (productIdTable != null) {
+            return productIdTable.lookup(term);
+        }
+        if (perfectHash != null) {
+            return perfectHash.lookup(term);
+        }
+        if (filter != null && !filter.mightContain(term)) {
+            return -1;
+        }
+        if (numOfBlocks == 0) {
+            return -1;
+        }
+        /* Find the last block whose first term is not greater than the term */
+        int left = 0;
+        int right = numOfBlocks - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (compareToHead(term, mid) < 0) {
+                right = mid - 1;
+            } else {
+                left = mid;
+            }
+        }
+        int cmp = compareToHead(term, left);
+        if (cmp == 0) {
+            return left * K;
+        }
+        return (cmp < 0) ? -1 : scanBlock(left, term);
+    }
+
+    /**
+     * Compare a term to the first term of a block, by the order of Strings.
+     * @param term The term
+     * @param block The block
+     * @return Negative number if the term is smaller, 0 if equal, and positive if it is greater
+     */
+    private int compareToHead(String term, int block) {
+        int len = getHeadLength(block);
+        int end = Math.min(len, term.length());
+        for (int j = 0; j < end; ++j) {
+            int diff = term.charAt(j) - getHeadByte(block, j);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return term.length() - len;
+    }
+
+    /**
+     * Scan a block for a term that is greater than the first term of the block.
+     * @param block The block
+     * @param term The term
+     * @return The position of the term in the dictionary, or -1 if not found.
+     */
+    private int scanBlock(int block, String term) {
+        int i = block * K;
+        int bound = Math.min(numOfTerms, i + K);
+        int ptr = getTermPtr(block);
+        /* The length of the prefix the term shares with the previous term, which is smaller than the term */
+        int matched = matchTermBytes(term, 0, ptr, getLength(i));
+        ptr += getLength(i);
+        for (++i; i < bound; ++i) {
+            int prefix = getPrefixSize(i);
+            int suffixLength = getLength(i) - prefix;
+            if (prefix < matched) {
+                /* This term differs from the previous one where the previous one still matched: it is greater */
+                return -1;
+            }
+            if (prefix == matched) {
+                int j = matchTermBytes(term, matched, ptr, suffixLength);
+                int k = j - matched;
+                if (k == suffixLength) {
+                    if (j == term.length()) {
+                        return i;
+                    }
+                    matched = j;  // This term is a prefix of the term
+                } else if (j == term.length() || term.charAt(j) < getTermByte(ptr + k)) {
+                    return -1;
+                } else {
+                    matched = j;
+                }
+            }
+            /* Otherwise this term shares the mismatch of the previous one, so it is smaller as well */
+            ptr += suffixLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the terms that start with the given prefix. Only the block the range starts at is scanned from it's
+     * first term, past that the scan stops at the first term that doesn't start with the prefix.
+     * @param prefix The prefix
+     * @return The positions of the terms in the dictionary, as {first, end (exclusive)}, where first == end if no
+     *         term starts with the prefix
+     */
+    int[] searchPrefix(String prefix) {
+        if (numOfTerms == 0) {
+            return new int[] {0, 0};
+        }
+        /* Find the last block whose first term is smaller than the prefix (or the first block) */
+        int left = 0;
+        int right = numOfBlocks - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (compareToHead(prefix, mid) > 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        int first = -1;
+        int i = left * K;
+        int ptr = getTermPtr(left);
+        /* The length of the prefix the current term shares with the given prefix */
+        int matched = 0;
+        for (; i < numOfTerms; ++i) {
+            int termPrefix = (i % K == 0) ? 0 : getPrefixSize(i);
+            int suffixLength = getLength(i) - termPrefix;
+            if (i % K == 0) {
+                matched = 0;  // The first term of a block is not front coded
+            }
+            boolean greater;
+            if (termPrefix < matched) {
+                /* This term differs from the previous one where the previous one still matched: it is greater */
+                matched = termPrefix;
+                greater = true;
+            } else if (termPrefix == matched) {
+                int j = matchTermBytes(prefix, matched, ptr, suffixLength);
+                int k = j - matched;
+                matched = j;
+                greater = j < prefix.length() && k < suffixLength && getTermByte(ptr + k) > prefix.charAt(j);
+            } else {
+                greater = false;  // This term shares the previous one's relation to the prefix
+            }
+
+            if (matched == prefix.length()) {
+                if (first < 0) {
+                    first = i;
+                }
+            } else if (greater || first >= 0) {
+                break;
+            }
+            ptr += suffixLength;
+        }
+        return (first < 0) ? new int[] {0, 0} : new int[] {first, i};
+    }
+
+    /**
+     * Find the terms within the given edit distance of the given term, by walking the terms in order through a
+     * Levenshtein automaton. The states of the prefix a term shares with the previous one are kept, so only it's
+     * suffix is read. Once the state of a prefix is dead the terms that start with it are skipped without reading
+     * them: the rest of them in the block by their prefix sizes, and whole blocks by a binary search on the block
+     * heads.
+     * @param term The term
+     * @param maxDistance The maximal edit distance
+     * @return The positions of the terms in the dictionary, in order
+     */
+    ArrayList<Integer> searchFuzzy(String term, int maxDistance) {
+        ArrayList<Integer> matches = new ArrayList<>();
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, maxDistance);
+        /* Every state is dead after reading maxDistance chars more than the length of the term */
+        int maxDepth = term.length() + maxDistance + 1;
+        int[][] states = new int[maxDepth + 1][automaton.getStateSize()];
+        automaton.start(states[0]);
+        byte[] read = new byte[maxDepth];  // The chars read to reach the states
+        int numRead = 0;
+        boolean dead = false;  // Whether the state reached by the read chars is dead
+
+        int block = 0;
+        while (block < numOfBlocks) {
+            int ptr = getTermPtr(block);
+            int bound = Math.min(numOfTerms, (block + 1) * K);
+            int nextBlock = block + 1;
+            for (int i = block * K; i < bound; ++i) {
+                int termPrefix = (i % K == 0) ? 0 : getPrefixSize(i);
+                int length = getLength(i);
+                int shared = termPrefix;
+                if (i % K == 0) {
+                    /* The first term of a block is not front coded, match it against the read chars */
+                    while (shared < numRead && shared < length && getTermByte(ptr + shared) == (read[shared] & 0xFF)) {
+                        ++shared;
+                    }
+                }
+
+                if (!dead || shared < numRead) {
+                    int depth = Math.min(shared, numRead);
+                    dead = false;
+                    while (depth < length && !dead) {
+                        int c = getTermByte(ptr + depth - termPrefix);
+                        read[depth] = (byte) c;
+                        dead = !automaton.step(states[depth], c, states[depth + 1]);
+                        ++depth;
+                    }
+                    numRead = depth;
+                    if (!dead && automaton.isMatch(states[depth])) {
+                        matches.add(i);
+                    }
+                    if (dead && nextBlock < numOfBlocks && compareHeadToPrefix(nextBlock, read, numRead) == 0) {
+                        nextBlock = lastBlockWithPrefix(read, numRead, nextBlock);
+                        break;
+                    }
+                }
+                ptr += length - termPrefix;
+            }
+            block = nextBlock;
+        }
+        return matches;
+    }
+
+    /**
+     * Find the last block whose first term starts with the given prefix or is smaller than it.
+     * @param prefix Array holding the prefix
+     * @param length The length of the prefix
+     * @param from A block whose first term starts with the prefix
+     * @return The block
+     */
+    private int lastBlockWithPrefix(byte[] prefix, int length, int from) {
+        int left = from;
+        int right = numOfBlocks - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (compareHeadToPrefix(mid, prefix, length) <= 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Compare the first term of the given block to the terms that start with the given prefix.
+     * @param block The block
+     * @param prefix Array holding the prefix
+     * @param length The length of the prefix
+     * @return Negative number if the term is smaller, 0 if it starts with the prefix, and positive if it is greater
+     */
+    private int compareHeadToPrefix(int block, byte[] prefix, int length) {
+        int len = getHeadLength(block);
+        for (int j = 0; j < length; ++j) {
+            if (j == len) {
+                return -1;
+            }
+            int diff = getHeadByte(block, j) - (prefix[j] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find how far the term matches the term bytes at the given position.
+     * @param term The term
+     * @param from Position in the term to start matching from
+     * @param ptr Position in the term bytes matched against term[from]
+     * @param len Number of term bytes to match
+     * @return The position in the term of the first mismatch, or where the term or the bytes end
+     */
+    private int matchTermBytes(String term, int from, int ptr, int len) {
+        int end = Math.min(term.length(), from + len);
+        int j = from;
+        while (j < end && term.charAt(j) == getTermByte(ptr + j - from)) {
+            ++j;
+        }
+        return j;
+    }
+
+    /**
+     * Return the term byte at the given position, as the char it encodes
+     */
+    private int getTermByte(int pos) {
+        if (cache != null) {
+            Block b = getBlockOfTermByte(pos);
+            return b.terms[pos - b.termStart] & 0xFF;
+        }
+        return data.get(termsOffset + pos) & 0xFF;
+    }
+
+    /**
+     * Return the length of the first term of the given block (which is resident in paged mode)
+     */
+    private int getHeadLength(int block) {
+        return (heads != null) ? headPtr[block + 1] - headPtr[block] : getLength(block * K);
+    }
+
+    /**
+     * Return the j'th char of the first term of the given block (which is resident in paged mode)
+     */
+    private int getHeadByte(int block, int j) {
+        return (heads != null) ? heads[headPtr[block] + j] & 0xFF : getTermByte(getTermPtr(block) + j);
+    }
+
+    /**
+     * Search for a term by building the terms of the blocks as Strings. This is the search that searchTerm replaced,
+     * kept as a reference for Benchmark.
+     * @param term The term to search
+     * @return The position of the term in the dictionary, or -1 if not found.
+     */
+    int searchTermByStrings(String term) {
         return binarySearch(0, numOfBlocks - 1, term);
     }
 
@@ -277,7 +1178,7 @@ public class Dictionary implements Serializable {
      */
     private int binarySearch(int left, int right, String term) {
         if (right == left) {
-            if (term.equals(concatStr.substring(termPtr[left], termPtr[left] + length[left * K])))
+            if (term.equals(substring(getTermPtr(left), getTermPtr(left) + getLength(left * K))))
                 return left * K;
             return rangeSearch(left, term);
         }
@@ -287,18 +1188,18 @@ public class Dictionary implements Serializable {
 
             // If the element is present at the
             // middle itself
-            if (term.equals(concatStr.substring(termPtr[mid], termPtr[mid] + length[mid * K])))
+            if (term.equals(substring(getTermPtr(mid), getTermPtr(mid) + getLength(mid * K))))
                 return mid * K;
 
             // If element is smaller than mid, then
             // it can only be present in left subarray
-            if (term.compareTo(concatStr.substring(termPtr[mid], termPtr[mid] + length[mid * K])) < 0)
+            if (term.compareTo(substring(getTermPtr(mid), getTermPtr(mid) + getLength(mid * K))) < 0)
                 return binarySearch(left, mid - 1, term);
 
             // Else the element can only be present
             // in right subarray
-            if (term.compareTo(concatStr.substring(termPtr[mid + 1],
-                                                   termPtr[mid + 1] + length[(mid + 1) * K])) < 0) {
+            if (term.compareTo(substring(getTermPtr(mid + 1),
+                                                   getTermPtr(mid + 1) + getLength((mid + 1) * K))) < 0) {
                 return binarySearch(mid, mid, term);
             }
 
@@ -317,25 +1218,25 @@ public class Dictionary implements Serializable {
      * @return The position of the term within the bounds, or -1 of not found.
      */
     private int rangeSearch(int left, String term) {
-        int basePtr = termPtr[left];
+        int basePtr = getTermPtr(left);
         int i = left * K ;
-        String prevTerm = concatStr.substring(basePtr, basePtr + length[i]);
-        basePtr += length[i];
+        String prevTerm = substring(basePtr, basePtr + getLength(i));
+        basePtr += getLength(i);
 
         String curr;
         // Set the bound to fit the number of terms in the current block (starts at index left)
-        int bound = ((left == termPtr.length - 1) && (numOfTerms - i < K)) ? numOfTerms : i + K;
+        int bound = ((left == numOfBlocks - 1) && (numOfTerms - i < K)) ? numOfTerms : i + K;
         ++i;
         while (i < bound) {
-            curr = concatStr.substring(basePtr, basePtr + length[i] - prefixSize[i]);
-            String prefix = prevTerm.substring(0, prefixSize[i]);
+            curr = substring(basePtr, basePtr + getLength(i) - getPrefixSize(i));
+            String prefix = prevTerm.substring(0, getPrefixSize(i));
             curr = prefix.concat(curr);
             if (term.equals(curr)) {
                 return i;
             }
 
             prevTerm = curr;
-            basePtr += length[i] - prefixSize[i];
+            basePtr += getLength(i) - getPrefixSize(i);
             ++i;
         }
         return -1;
@@ -345,13 +1246,73 @@ public class Dictionary implements Serializable {
      * Return the frequency of the i'th term
      */
     int getFrequency(int i) {
-        return frequency[i];
+        if (cache != null) {
+            Block b = getBlock(i / K);
+            return b.frequency[i - b.firstTerm];
+        }
+        return (int) getBits(data, recordsOffset, (long) i * recordBits, frequencyBits);
     }
 
     /**
      * Return the posting list position of the i'th term
      */
     long getPostingPtr(int i) {
-        return postingPtr[i];
+        if (cache != null) {
+            Block b = getBlock(i / K);
+            return b.postingPtr[i - b.firstTerm];
+        }
+        return getBlockPostingPtr(i / K) +
+                getBits(data, recordsOffset, (long) i * recordBits + frequencyBits, postingDeltaBits);
+    }
+
+    /**
+     * Return the length of the i'th term
+     */
+    private int getLength(int i) {
+        if (cache != null) {
+            Block b = getBlock(i / K);
+            return b.length[i - b.firstTerm];
+        }
+        return (int) getBits(data, recordsOffset, (long) i * recordBits + frequencyBits + postingDeltaBits,
+                             lengthBits);
+    }
+
+    /**
+     * Return the length of the prefix the i'th term shares with the previous term (0 for the first term of a block)
+     */
+    private int getPrefixSize(int i) {
+        if (cache != null) {
+            Block b = getBlock(i / K);
+            return b.prefixSize[i - b.firstTerm];
+        }
+        return (int) getBits(data, recordsOffset, (long) i * recordBits + recordBits - prefixSizeBits,
+                             prefixSizeBits);
+    }
+
+    /**
+     * Return the position in the term bytes of the first term of the given block
+     */
+    private int getTermPtr(int block) {
+        return data.getInt(termPtrOffset + block * Integer.BYTES);
+    }
+
+    /**
+     * Return the posting list position of the first term of the given block
+     */
+    private long getBlockPostingPtr(int block) {
+        return data.getLong(blockPostingPtrOffset + block * Long.BYTES);
+    }
+
+    /**
+     * Return the term bytes in the given range as a String
+     * @param from Start of the range
+     * @param to End of the range (exclusive)
+     */
+    private String substring(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; ++i) {
+            bytes[i - from] = (byte) getTermByte(i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
     }
 }
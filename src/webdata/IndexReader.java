@@ -3,9 +3,15 @@ package webdata;
 import java.io.*;
 import java.rmi.server.ExportException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.Vector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class IndexReader {
 
@@ -13,19 +19,147 @@ public class IndexReader {
     Dictionary productDict;
     ReviewData rd;
 
+    /* The most recent lookups of tokens, in a direct mapped cache (a slot per hash of the token as given) */
+    private static final int HANDLE_CACHE_SIZE = 1 << 10;
+    private final AtomicReferenceArray<CachedLookup> handleCache = new AtomicReferenceArray<>(HANDLE_CACHE_SIZE);
+
+    /**
+     * A lookup of a token in the cache: the token as given and it's handle, or null if it is not in the index.
+     */
+    private static final class CachedLookup {
+        final String token;
+        final TermHandle handle;
+
+        CachedLookup(String token, TermHandle handle) {
+            this.token = token;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * The postings of a cursor as a series of integers of the form id-1, freq-1, id-2, freq-2, ... (or id-1, id-2,
+     * ... without the frequencies), read from the cursor as the series is enumerated.
+     */
+    private static final class PostingsEnumeration implements Enumeration<Integer> {
+        private final PostingsCursor cursor;
+        private final boolean withFrequencies;
+        private boolean atFrequency = false;
+
+        PostingsEnumeration(PostingsCursor cursor, boolean withFrequencies) {
+            this.cursor = cursor;
+            this.withFrequencies = withFrequencies;
+            cursor.nextDoc();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return cursor.docId() != PostingsCursor.NO_MORE_DOCS;
+        }
+
+        @Override
+        public Integer nextElement() {
+            if (!hasMoreElements()) {
+                throw new NoSuchElementException();
+            }
+            if (atFrequency) {
+                atFrequency = false;
+                int freq = cursor.freq();
+                cursor.nextDoc();
+                return freq;
+            }
+            int reviewId = cursor.docId();
+            if (withFrequencies) {
+                atFrequency = true;
+            } else {
+                cursor.nextDoc();
+            }
+            return reviewId;
+        }
+    }
+
+    /**
+     * The postings of several cursors merged by review, as a series of integers of the form id-1, freq-1, id-2,
+     * freq-2, ... where freq-n is the sum of the frequencies of review id-n in all cursors. The cursors are kept in a
+     * heap by their current review, and the series is read from them as it is enumerated.
+     */
+    private static final class MergedPostingsEnumeration implements Enumeration<Integer> {
+        private final PriorityQueue<PostingsCursor> heap =
+                new PriorityQueue<>(Comparator.comparingInt(PostingsCursor::docId));
+        private boolean hasReview;
+        private int reviewId;
+        private int freq;
+        private boolean atFrequency = false;
+
+        MergedPostingsEnumeration(ArrayList<PostingsCursor> cursors) {
+            for (PostingsCursor cursor: cursors) {
+                if (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                    heap.add(cursor);
+                }
+            }
+            nextReview();
+        }
+
+        /**
+         * Move to the next review of the cursors, and sum it's frequencies.
+         */
+        private void nextReview() {
+            hasReview = !heap.isEmpty();
+            if (!hasReview) {
+                return;
+            }
+            reviewId = heap.peek().docId();
+            freq = 0;
+            while (!heap.isEmpty() && heap.peek().docId() == reviewId) {
+                PostingsCursor cursor = heap.poll();
+                freq += cursor.freq();
+                if (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                    heap.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return hasReview;
+        }
+
+        @Override
+        public Integer nextElement() {
+            if (!hasReview) {
+                throw new NoSuchElementException();
+            }
+            if (atFrequency) {
+                atFrequency = false;
+                int reviewFreq = freq;
+                nextReview();
+                return reviewFreq;
+            }
+            atFrequency = true;
+            return reviewId;
+        }
+    }
+
     /**
      * Creates an IndexReader which will read from the given directory
      * @param dir The directory to read from.
      */
     public IndexReader(String dir) {
-        try {
-            ObjectInputStream tokenDictReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.tokenDictFileName));
-            tokenDict = (Dictionary) tokenDictReader.readObject();
-            tokenDictReader.close();
+        this(dir, 0);
+    }
 
-            ObjectInputStream productDictReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.productDictFileName));
-            productDict = (Dictionary) productDictReader.readObject();
-            productDictReader.close();
+    /**
+     * Creates an IndexReader which will read from the given directory, with it's dictionaries in paged mode: only
+     * the first term of every block of terms is kept in memory, and the blocks are read when they are queried and
+     * cached. This keeps the memory of the reader small for very large vocabularies.
+     * @param dir The directory to read from.
+     * @param cacheSize The number of blocks (of 100 terms) to cache per dictionary, or 0 to map the dictionaries to
+     *                  memory instead
+     */
+    public IndexReader(String dir, int cacheSize) {
+        try {
+            /* The dictionaries are mapped to memory or paged, and only the parts that are queried are read */
+            tokenDict = Dictionary.open(dir + File.separator + IndexWriter.tokenDictFileName, dir, cacheSize);
+            productDict = Dictionary.open(dir + File.separator + IndexWriter.productDictFileName, dir, cacheSize);
 
             ObjectInputStream reviewDataReader = new ObjectInputStream(new FileInputStream(dir + File.separator + IndexWriter.reviewDataFileName));
             rd = (ReviewData) reviewDataReader.readObject();
@@ -95,12 +229,8 @@ public class IndexReader {
      *         Returns 0 if there are no reviews containing this token
      */
     public int getTokenFrequency(String token) {
-        int i = tokenDict.searchTerm(token.toLowerCase());
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return 0;
-        }
-        long pos = tokenDict.getPostingPtr(i);
-        return tokenDict.readLength(pos);
+        TermHandle handle = lookupToken(token);
+        return (handle == null) ? 0 : handle.getDocumentFrequency();
     }
 
     /**
@@ -109,11 +239,8 @@ public class IndexReader {
      *         Returns 0 if there are no reviews containing this token
      */
     public int getTokenCollectionFrequency(String token) {
-        int i = tokenDict.searchTerm(token.toLowerCase());
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return 0;
-        }
-        return tokenDict.getFrequency(i);
+        TermHandle handle = lookupToken(token);
+        return (handle == null) ? 0 : handle.getCollectionFrequency();
     }
 
     /**
@@ -125,9 +252,94 @@ public class IndexReader {
      *         Returns an empty Enumeration if there are no reviews containing this token.
      */
      public Enumeration<Integer> getReviewsWithToken(String token) {
-         return enumHelper(tokenDict, token.toLowerCase());
+         return getReviewsWithToken(lookupToken(token));
      }
 
+    /**
+     * Find a token in the index once, so it's statistics and posting list can be queried without searching for it
+     * again. The recent lookups are cached, so looking a token up again (e.g. by getTokenFrequency and then
+     * getReviewsWithToken) is nearly free.
+     * @param token The token to look up.
+     * @return The handle of the token, or null if there are no reviews containing this token.
+     */
+    public TermHandle lookupToken(String token) {
+        int slot = token.hashCode() & (HANDLE_CACHE_SIZE - 1);
+        CachedLookup cached = handleCache.get(slot);
+        if (cached != null && cached.token.equals(token)) {
+            return cached.handle;
+        }
+
+        String term = token.toLowerCase();
+        int i = tokenDict.searchTerm(term);
+        TermHandle handle = null;
+        if (i >= 0 && i < tokenDict.getNumOfTerms()) {
+            long pos = tokenDict.getPostingPtr(i);
+            long nextPos = (i + 1 < tokenDict.getNumOfTerms()) ? tokenDict.getPostingPtr(i + 1) : -1;
+            handle = new TermHandle(term, i, tokenDict.readLength(pos), tokenDict.getFrequency(i), pos, nextPos);
+        }
+        handleCache.set(slot, new CachedLookup(token, handle));
+        return handle;
+    }
+
+    /**
+     * @param handle The handle of the token to check, as returned by lookupToken.
+     * @return A series of integers of the form id-1, freq-1, id-2, freq-2, ... such that
+     *         id-n is the n-th review containing the token and freq-n is the number of times that the token
+     *         appears in review id-n.
+     *         Note that the integers are sorted by id.
+     *         Returns an empty Enumeration if the handle is null.
+     */
+    public Enumeration<Integer> getReviewsWithToken(TermHandle handle) {
+        return new PostingsEnumeration(getPostingsCursor(handle), true);
+    }
+
+    /**
+     * Open a cursor over the postings of a token, which can skip to a review without decoding the postings before
+     * it (e.g. to intersect the reviews of a rare token with the reviews of a common one).
+     * @param handle The handle of the token, as returned by lookupToken.
+     * @return The cursor, with no postings if the handle is null.
+     */
+    public PostingsCursor getPostingsCursor(TermHandle handle) {
+        if (handle == null) {
+            return PostingsCursor.empty();
+        }
+        return tokenDict.cursor(handle.getPostingPtr(), handle.getNextPostingPtr());
+    }
+
+    /**
+     * @param prefix The prefix of the tokens to check.
+     * @return A series of integers of the form id-1, freq-1, id-2, freq-2, ... such that
+     *         id-n is the n-th review containing a token that starts with the given prefix and freq-n is the number
+     *         of times that such tokens appear in review id-n.
+     *         Note that the integers are sorted by id.
+     *         Returns an empty Enumeration if there are no reviews containing such a token.
+     */
+    public Enumeration<Integer> getReviewsWithTokenPrefix(String prefix) {
+        int[] range = tokenDict.searchPrefix(prefix.toLowerCase());
+        ArrayList<PostingsCursor> cursors = new ArrayList<>();
+        for (int i = range[0]; i < range[1]; ++i) {
+            cursors.add(tokenCursor(i));
+        }
+        return new MergedPostingsEnumeration(cursors);
+    }
+
+    /**
+     * Find the tokens that are within the given edit distance of the given token (e.g. misspellings of it).
+     * @param token The token to check.
+     * @param maxDistance The maximal number of chars inserted, deleted or replaced to get from one token to the other.
+     * @return The matching tokens by their order, each with a series of integers of the form id-1, freq-1, id-2,
+     *         freq-2, ... such that id-n is the n-th review containing the token and freq-n is the number of times
+     *         that the token appears in review id-n.
+     *         Returns an empty map if there are no such tokens.
+     */
+    public Map<String, Enumeration<Integer>> getReviewsWithFuzzyToken(String token, int maxDistance) {
+        LinkedHashMap<String, Enumeration<Integer>> reviewsWithTokens = new LinkedHashMap<>();
+        for (int i: tokenDict.searchFuzzy(token.toLowerCase(), maxDistance)) {
+            reviewsWithTokens.put(tokenDict.getTerm(i), new PostingsEnumeration(tokenCursor(i), true));
+        }
+        return reviewsWithTokens;
+    }
+
 
      // --------------------------------------------------------- //
 
@@ -151,6 +363,34 @@ public class IndexReader {
     }
 
 
+    /**
+     * @return The number of dictionary block accesses that were served by the block cache (in paged mode).
+     */
+    public long getBlockCacheHits() {
+        return tokenDict.getCacheHits() + productDict.getCacheHits();
+    }
+
+    /**
+     * @return The number of dictionary block accesses that read the block from disk (in paged mode).
+     */
+    public long getBlockCacheMisses() {
+        return tokenDict.getCacheMisses() + productDict.getCacheMisses();
+    }
+
+    /**
+     * Close the files the reader keeps open: the posting files, and the dictionary files in paged mode.
+     * The reader can't be used after it is closed.
+     */
+    public void close() {
+        try {
+            tokenDict.close();
+            productDict.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
     // ---------------------------------------------------------- //
 
 
@@ -168,6 +408,16 @@ public class IndexReader {
     // ---------------------------------------------------------- //
 
 
+    /**
+     * Open a cursor over the postings of the token at the given position in the token dictionary.
+     * @param i The position of the token
+     * @return The cursor
+     */
+    private PostingsCursor tokenCursor(int i) {
+        long nextPos = (i + 1 < tokenDict.getNumOfTerms()) ? tokenDict.getPostingPtr(i + 1) : -1;
+        return tokenDict.cursor(tokenDict.getPostingPtr(i), nextPos);
+    }
+
     /**
      * Get the Enumaration list for the given Dictionary and term.
      * @param dict Dictionary
@@ -176,14 +426,11 @@ public class IndexReader {
      */
     private Enumeration<Integer> enumHelper(Dictionary dict, String term) {
         int i = dict.searchTerm(term);
-        if (i < 0 || i >= tokenDict.getNumOfTerms()) {
-            return new Vector<Integer>().elements();
+        if (i < 0 || i >= dict.getNumOfTerms()) {
+            return new PostingsEnumeration(PostingsCursor.empty(), false);
         }
         long pos = dict.getPostingPtr(i);
         long nextPos = (i + 1 < dict.getNumOfTerms()) ? dict.getPostingPtr(i + 1) : -1;
-        Integer[] list = dict.read(pos, nextPos);
-
-        Vector<Integer> reviewsWithToken = new Vector<>(Arrays.asList(list));
-        return reviewsWithToken.elements();
+        return new PostingsEnumeration(dict.cursor(pos, nextPos), dict != productDict);
     }
 }
@@ -1,10 +1,23 @@
 package webdata;
 
 import org.junit.jupiter.api.*;
-
+import webdata.utils.BitUnpacker;
+import webdata.utils.PostingCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -180,6 +193,97 @@ class IndexReaderTest {
 			assertArrayEquals(expected, actual, () -> String.format(msgStr, "Sagiv"));
 		}
 
+		@Test
+		@DisplayName("Testing lookupToken")
+		void lookupToken(){
+			TermHandle handle = indexReader.lookupToken("ZuCchini");
+			assertEquals("zucchini", handle.getTerm());
+			assertEquals(4, handle.getDocumentFrequency());
+			assertEquals(5, handle.getCollectionFrequency());
+			testEnumerations(new String[] {"ZuCchini"}, new int[][] {{902, 2, 932, 1, 942, 1, 944, 1}},
+					token -> indexReader.getReviewsWithToken(indexReader.lookupToken(token)));
+			assertNull(indexReader.lookupToken("Sagiv"));
+		}
+
+		@Test
+		@DisplayName("Testing getPostingsCursor")
+		void getPostingsCursor(){
+			PostingsCursor cursor = indexReader.getPostingsCursor(indexReader.lookupToken("bEEr"));
+			assertEquals(10, cursor.size());
+			assertEquals(452, cursor.advance(300));
+			assertEquals(468, cursor.advance(468));
+			assertEquals(2, cursor.freq());
+			assertEquals(500, cursor.nextDoc());
+			assertEquals(PostingsCursor.NO_MORE_DOCS, cursor.advance(700));
+
+			cursor = indexReader.getPostingsCursor(indexReader.lookupToken("the"));
+			assertEquals(900, cursor.advance(900));
+			assertEquals(10, cursor.freq());
+			assertEquals(1, cursor.getNumOfDecodedBlocks());
+			assertEquals(PostingsCursor.NO_MORE_DOCS, indexReader.getPostingsCursor(null).nextDoc());
+		}
+
+		@Test
+		@DisplayName("Testing getReviewsWithTokenPrefix")
+		void getReviewsWithTokenPrefix(){
+			String[] inputs = {"ZuCchin", "taff", "Sagiv"};
+			int[][] expectedOutputs = {
+					{902, 2, 932, 1, 942, 1, 944, 1},
+					{5, 3, 6, 3, 7, 1, 8, 1, 741, 1},
+					{},
+			};
+			testEnumerations(inputs, expectedOutputs, indexReader::getReviewsWithTokenPrefix);
+		}
+
+		@Test
+		@DisplayName("Testing getReviewsWithFuzzyToken")
+		void getReviewsWithFuzzyToken(){
+			Map<String, Enumeration<Integer>> matches = indexReader.getReviewsWithFuzzyToken("Zuchini", 2);
+			assertEquals(Collections.singleton("zucchini"), matches.keySet());
+			testEnumerations(new String[] {"zucchini"}, new int[][] {{902, 2, 932, 1, 942, 1, 944, 1}}, matches::get);
+			assertTrue(indexReader.getReviewsWithFuzzyToken("Sagiv", 1).isEmpty());
+		}
+
+		@Test
+		@DisplayName("Testing getReviewsWithToken - paged dictionaries")
+		void getReviewsWithTokenPaged(){
+			IndexReader pagedReader = new IndexReader(indexDir, 2);
+			String[] inputs = {"ZuCchini", "taffy", "bEEr"};
+			int[][] expectedOutputs = {
+					{902, 2, 932, 1, 942, 1, 944, 1},
+					{5, 3, 6, 3, 7, 1, 8, 1, 741, 1},
+					{4, 1, 6, 1, 270, 1, 452, 1, 467, 1, 468, 2, 500, 1, 575, 1, 603, 2, 604, 1},
+			};
+			testEnumerations(inputs, expectedOutputs, pagedReader::getReviewsWithToken);
+			assertEquals(3, pagedReader.getBlockCacheMisses());
+			pagedReader.close();
+		}
+
+		@Test
+		@DisplayName("Testing paged dictionaries - a cache smaller than the dictionary")
+		void getReviewsWithTokenEvicted(){
+			IndexReader pagedReader = new IndexReader(indexDir, 2);
+			String[] inputs = {"addition", "bEEr", "Greatest", "Lord", "sucKer", "taffy", "the", "ZuCchini", "Sagiv",
+					"zucchinis"};
+			long misses = 0;
+			for (int pass = 0; pass < 2; pass++) {
+				for (String input: inputs) {
+					/* Looked up again in another case, since the reader caches the handles of the tokens as given */
+					String token = (pass == 0) ? input : input.toUpperCase();
+					assertEquals(Collections.list(indexReader.getReviewsWithToken(token)),
+							Collections.list(pagedReader.getReviewsWithToken(token)), String.format(msgStr, token));
+					assertEquals(indexReader.getTokenCollectionFrequency(token),
+							pagedReader.getTokenCollectionFrequency(token), String.format(msgStr, token));
+				}
+				assertEquals(Collections.list(indexReader.getReviewsWithTokenPrefix("tho")),
+						Collections.list(pagedReader.getReviewsWithTokenPrefix("tho")), String.format(msgStr, "tho"));
+				/* The blocks of the first pass were evicted, so they are read again */
+				assertTrue(pagedReader.getBlockCacheMisses() > misses);
+				misses = pagedReader.getBlockCacheMisses();
+			}
+			pagedReader.close();
+		}
+
 		/** helper for testing Frequencies of Tokens on several valid inputs */
 		private void testTokenFrequency(String[] inputs, int[] expectedOutputs, Function<String, Integer> func){
 			for (int i = 0; i < inputs.length; i++) {
@@ -234,6 +338,222 @@ class IndexReaderTest {
 	}
 
 
+	@Nested
+	@DisplayName("Testing the writer settings")
+	class TestWriterSettings{
+		private final String[] tokens = {"ZuCchini", "taffy", "addition", "bEEr", "sucKer", "the", "to", "thing",
+				"Greatest", "Buttermilk", "Lord", "Sagiv"};
+		private final String[] productIds = {"B006K2ZZ7K", "B001GVISJM", "B0048IACB2", "B006F2NYI2", "B001E4KFG0",
+				"B000002399839829"};
+		private final String[] missingTokens = {"Sagiv", "tokenThatDoesNotExists", "zucchinis", "qwertyuiop", "b001e4kfg0"};
+
+		@Test
+		@DisplayName("Testing the index of every engine")
+		void engines(){
+			for (IndexWriter.Engine engine: IndexWriter.Engine.values()) {
+				String dir = indexDir + "_" + engine;
+				IndexReader reader = writeIndex(dir, inputFile, writer -> {
+					writer.setEngine(engine);
+					writer.setNumOfThreads(2);
+					writer.setRunMemoryBudget(1 << 16);
+				});
+				assertSameAnswers(indexReader, reader, tokens, productIds);
+				reader.close();
+				indexWriter.removeIndex(dir);
+			}
+		}
+
+		@Test
+		@DisplayName("Testing the index of the PForDelta codec")
+		void pforDelta(){
+			String dir = indexDir + "_pfor";
+			IndexReader reader = writeIndex(dir, inputFile, writer -> writer.setPostingCodec(PostingCodec.PFOR_DELTA));
+			assertSameAnswers(indexReader, reader, tokens, productIds);
+			PostingsCursor cursor = reader.getPostingsCursor(reader.lookupToken("the"));
+			assertEquals(900, cursor.advance(900));
+			assertEquals(10, cursor.freq());
+			reader.close();
+			indexWriter.removeIndex(dir);
+		}
+
+		@Test
+		@DisplayName("Testing the index with perfect hashes")
+		void perfectHash(){
+			String dir = indexDir + "_mph";
+			IndexReader reader = writeIndex(dir, inputFile, writer -> writer.setPerfectHash(true));
+			assertSameAnswers(indexReader, reader, tokens, productIds);
+			assertMissing(reader, missingTokens);
+
+			/* Without the perfect hash the dictionary is searched */
+			assertTrue(new File(dir, IndexWriter.tokenDictFileName + Dictionary.PERFECT_HASH_SUFFIX).delete());
+			reader.close();
+			reader = new IndexReader(dir);
+			assertSameAnswers(indexReader, reader, tokens, productIds);
+			assertMissing(reader, missingTokens);
+			reader.close();
+			indexWriter.removeIndex(dir);
+		}
+
+		@Test
+		@DisplayName("Testing the index with Bloom filters")
+		void bloomFilter(){
+			String dir = indexDir + "_bloom";
+			IndexReader reader = writeIndex(dir, inputFile, writer -> writer.setBloomFilter(0.01));
+			assertSameAnswers(indexReader, reader, tokens, productIds);
+			assertMissing(reader, missingTokens);
+
+			/* Tokens that pass the filter by mistake are still searched, and not found */
+			String[] manyMissingTokens = new String[1000];
+			for (int i = 0; i < manyMissingTokens.length; i++) {
+				manyMissingTokens[i] = "missing" + i;
+			}
+			assertMissing(reader, manyMissingTokens);
+
+			/* Without the filter every token is searched */
+			assertTrue(new File(dir, IndexWriter.tokenDictFileName + Dictionary.BLOOM_FILTER_SUFFIX).delete());
+			reader.close();
+			reader = new IndexReader(dir);
+			assertSameAnswers(indexReader, reader, tokens, productIds);
+			assertMissing(reader, missingTokens);
+			reader.close();
+			indexWriter.removeIndex(dir);
+		}
+
+		@Test
+		@DisplayName("Testing the product id table - an id of another pattern")
+		void productIdTable() throws IOException {
+			assertTrue(new File(indexDir, IndexWriter.productDictFileName + Dictionary.PRODUCT_ID_TABLE_SUFFIX).exists());
+
+			/* The sample of 100 reviews, where the product id of the first review doesn't fit the pattern */
+			String input = indexDir + "_odd.txt";
+			String data = new String(Files.readAllBytes(Paths.get("100.txt")), StandardCharsets.ISO_8859_1);
+			data = data.replaceFirst("B001E4KFG0", "B001E4-FG0");
+			Files.write(Paths.get(input), data.getBytes(StandardCharsets.ISO_8859_1));
+			String dir = indexDir + "_odd";
+			IndexReader reader = writeIndex(dir, input, writer -> {});
+			assertFalse(new File(dir, IndexWriter.productDictFileName + Dictionary.PRODUCT_ID_TABLE_SUFFIX).exists());
+			assertEquals("B001E4-FG0", reader.getProductId(1));
+			String[] inputs = {"B001E4-FG0", "B00813GRG4", "B006K2ZZ7K", "B001E4KFG0"};
+			int[][] expectedOutputs = {{1}, {2}, {5, 6, 7, 8}, {}};
+			testEnumerations(inputs, expectedOutputs, reader::getProductReviews);
+			reader.close();
+			indexWriter.removeIndex(dir);
+			Files.delete(Paths.get(input));
+		}
+
+		/** helper for checking that tokens are not found */
+		private void assertMissing(IndexReader reader, String[] tokens){
+			for (String token: tokens) {
+				assertNull(reader.lookupToken(token), String.format(msgStr, token));
+				assertEquals(0, reader.getTokenFrequency(token), String.format(msgStr, token));
+				assertFalse(reader.getReviewsWithToken(token).hasMoreElements(), String.format(msgStr, token));
+			}
+		}
+
+		/** helper for writing an input to another directory with the given writer settings */
+		private IndexReader writeIndex(String dir, String input, Consumer<IndexWriter> settings){
+			IndexWriter writer = new IndexWriter();
+			settings.accept(writer);
+			writer.write(input, dir);
+			return new IndexReader(dir);
+		}
+
+		/** helper for comparing the answers of two readers on several tokens and product ids */
+		private void assertSameAnswers(IndexReader expected, IndexReader actual, String[] tokens,
+									   String[] productIds){
+			for (String token: tokens) {
+				assertEquals(expected.getTokenFrequency(token), actual.getTokenFrequency(token),
+						String.format(msgStr, token));
+				assertEquals(expected.getTokenCollectionFrequency(token), actual.getTokenCollectionFrequency(token),
+						String.format(msgStr, token));
+				assertEquals(Collections.list(expected.getReviewsWithToken(token)),
+						Collections.list(actual.getReviewsWithToken(token)), String.format(msgStr, token));
+			}
+			for (String productId: productIds) {
+				assertEquals(Collections.list(expected.getProductReviews(productId)),
+						Collections.list(actual.getProductReviews(productId)), String.format(msgStr, productId));
+			}
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Testing the posting codecs")
+	class TestPostingCodecs{
+
+		@Test
+		@DisplayName("Testing PForDelta - encode and decode")
+		void pforDeltaRoundTrip(){
+			/* Small gaps and frequencies with a few large ones, which don't fit the bit width of their block */
+			int[] reviewIds = new int[300];
+			int[] frequencies = new int[300];
+			int reviewId = 0;
+			for (int i = 0; i < reviewIds.length; i++) {
+				reviewId += (i % 37 == 5) ? 1 << 20 : 1 + i % 3;
+				reviewIds[i] = reviewId;
+				frequencies[i] = (i % 53 == 7) ? 100000 : 1 + i % 2;
+			}
+			PostingCodec[] codecs = {PostingCodec.PFOR_DELTA, PostingCodec.pforDelta(BitUnpacker.SCALAR)};
+			int[] counts = {1, 128, 300};  // A single posting, a full block, and blocks ending with a partial one
+			for (PostingCodec codec: codecs) {
+				for (int count: counts) {
+					assertRoundTrip(codec, reviewIds, count, true);
+					assertRoundTrip(codec, frequencies, count, false);
+				}
+			}
+		}
+
+		@Test
+		@DisplayName("Testing the vector unpacker - against the scalar one")
+		void vectorUnpacker() throws ReflectiveOperationException {
+			BitUnpacker vector = null;
+			try {
+				Method create = Class.forName("webdata.utils.VectorBitUnpacker").getDeclaredMethod("create");
+				create.setAccessible(true);
+				vector = (BitUnpacker) create.invoke(null);
+			} catch (ClassNotFoundException | LinkageError e) {
+				// src-vector wasn't compiled, or the jdk.incubator.vector module isn't added
+			}
+			Assumptions.assumeTrue(vector != null, "The vector unpacker is not available");
+
+			/* Blocks of every width, at random positions of the buffer and of the array, that end the buffer */
+			Random random = new Random(22);
+			for (int i = 0; i < 2000; i++) {
+				int width = i % (Integer.SIZE + 1);
+				int n = 1 + random.nextInt(128);
+				int pos = random.nextInt(16);
+				int from = random.nextInt(16);
+				byte[] packed = new byte[pos + (n * width + 7) / Byte.SIZE];
+				random.nextBytes(packed);
+				ByteBuffer in = ByteBuffer.wrap(packed);
+				int[] expected = new int[from + n];
+				int[] actual = new int[from + n];
+				String msg = String.format("fail on width: %d, count: %d, position: %d", width, n, pos);
+				assertEquals(BitUnpacker.SCALAR.unpack(in, pos, width, expected, from, n),
+						vector.unpack(in, pos, width, actual, from, n), msg);
+				assertArrayEquals(expected, actual, msg);
+
+				int prevVal = random.nextInt(1 << 20);
+				assertEquals(BitUnpacker.SCALAR.prefixSum(expected, from, n, prevVal),
+						vector.prefixSum(actual, from, n, prevVal), msg);
+				assertArrayEquals(expected, actual, msg);
+			}
+		}
+
+		/** helper for encoding and decoding the first values of an array */
+		private void assertRoundTrip(PostingCodec codec, int[] values, int count, boolean codeAsGap){
+			String msg = String.format("fail on codec: %s, count: %d", codec.getName(), count);
+			ByteBuffer buffer = ByteBuffer.allocate(codec.maxEncodedLength(count));
+			codec.encode(values, count, codeAsGap, buffer);
+			buffer.flip();
+			int[] decoded = new int[count];
+			assertEquals(count, codec.decode(buffer, codeAsGap, decoded), msg);
+			assertArrayEquals(Arrays.copyOf(values, count), decoded, msg);
+			assertEquals(0, buffer.remaining(), msg);
+		}
+	}
+
+
 	/** helper for testing Enumerations returned values */
 	private void testEnumerations(String[] inputs, int[][] expectedOutputs,
 								  Function<String, Enumeration<Integer>> func) {
@@ -1,5 +1,10 @@
 package webdata;
 
+import webdata.utils.PostingCodec;
+import webdata.utils.PostingSource;
+import webdata.utils.RunFileReader;
+import webdata.utils.RunFileWriter;
+
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -20,6 +25,127 @@ public class IndexWriter{
     private final String productsFileName = "productFile";
     private final String sortedIndicator = "_sorted";
 
+    /**
+     * The ways the index can be built: sorting (term, review) records in runs and merging them, or inverting blocks
+     * of reviews in memory to partial indexes and merging those term by term.
+     */
+    public enum Engine { SORT, SPIMI }
+
+    /* The way the index is built */
+    private Engine engine = Engine.SORT;
+
+    /* Number of threads parsing the input */
+    private int numOfThreads = Runtime.getRuntime().availableProcessors();
+
+    /* Size in bytes of the postings held in memory while the input is inverted */
+    private long runMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    /* Whether the last merge step feeds the dictionaries directly, or is written to a sorted file first */
+    private boolean streamFinalMerge = true;
+
+    /* The codec of the posting lists */
+    private PostingCodec codec = PostingCodec.GROUP_VARINT;
+
+    /* Whether to build perfect hashes of the dictionaries */
+    private boolean perfectHash = false;
+
+    /* The false positive rate of the Bloom filters of the dictionaries, 0 for no filters */
+    private double filterFalsePositiveRate = 0;
+
+    /* The runs created by the last write */
+    private int numOfRuns = 0;
+    private long runBytes = 0;
+
+    /* The size of the posting lists and of the Bloom filters created by the last write */
+    private long postingListsBytes = 0;
+    private long filterBytes = 0;
+
+    /**
+     * Set the way the index is built (the default is Engine.SORT). Both create the same index.
+     * @param engine The engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Set the number of threads used to parse and invert the input (the default is the number of available
+     * processors).
+     * @param numOfThreads The number of threads
+     */
+    public void setNumOfThreads(int numOfThreads) {
+        this.numOfThreads = Math.max(1, numOfThreads);
+    }
+
+    /**
+     * Set the memory budget of the inversion: the total size in bytes of the postings held in memory before they
+     * are written to sorted runs and of the vocabularies of the inverters (the default is a quarter of the maximal
+     * heap size). A larger budget creates fewer and larger runs, and so a smaller merge fan-in.
+     * @param bytes The budget in bytes
+     */
+    public void setRunMemoryBudget(long bytes) {
+        this.runMemoryBudget = Math.max(1, bytes);
+    }
+
+    /**
+     * Set whether the last merge step of the sort is streamed into the dictionaries (the default), or written to a
+     * sorted file that the dictionaries are then built from.
+     * @param stream True to stream the last merge step
+     */
+    public void setStreamFinalMerge(boolean stream) {
+        this.streamFinalMerge = stream;
+    }
+
+    /**
+     * Set the codec the posting lists are encoded with (the default is PostingCodec.GROUP_VARINT). It is recorded in
+     * the index, so the reader decodes the posting lists with the codec they were written with.
+     * @param codec The codec
+     */
+    public void setPostingCodec(PostingCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Set whether to build a minimal perfect hash of every dictionary (the default is not to), which makes exact
+     * term lookups O(1) at the cost of about 9 bytes per term. It is saved next to the dictionary and used by the
+     * reader if it exists.
+     * @param perfectHash True to build the perfect hashes
+     */
+    public void setPerfectHash(boolean perfectHash) {
+        this.perfectHash = perfectHash;
+    }
+
+    /**
+     * Set the false positive rate of a Bloom filter of every dictionary (the default is 0, for no filters). The
+     * reader rejects most terms that are not in the index by the filter, in a few probes and without searching
+     * the dictionary. A filter takes about 1.44 * log2(1 / rate) bits per term, e.g. 10 bits for a rate of 0.01.
+     * It is saved next to the dictionary and used by the reader if it exists.
+     * @param falsePositiveRate The rate (0 to 1) of terms not in the index that pass the filter
+     */
+    public void setBloomFilter(double falsePositiveRate) {
+        this.filterFalsePositiveRate = Math.max(0, falsePositiveRate);
+    }
+
+    /**
+     * Return the number of sorted runs created by the last write
+     */
+    public int getNumOfRuns() { return numOfRuns; }
+
+    /**
+     * Return the average size in bytes of the postings of a run created by the last write
+     */
+    public long getRunSize() { return (numOfRuns == 0) ? 0 : runBytes / numOfRuns; }
+
+    /**
+     * Return the size in bytes of the posting lists created by the last write
+     */
+    public long getPostingListsSize() { return postingListsBytes; }
+
+    /**
+     * Return the size in bytes of the Bloom filters created by the last write
+     */
+    public long getBloomFilterSize() { return filterBytes; }
+
     /**
      * Given product review data, creates an on disk index
      * inputFile is the path to the file containing the review data
@@ -46,8 +172,10 @@ public class IndexWriter{
         String sortedTokensFilePath = dir + File.separator + tokensFileName + sortedIndicator;
         String sortedProductsFilePath = dir + File.separator + productsFileName + sortedIndicator;
 
-        ReviewsParser parser = new ReviewsParser();
-        parser.parseFile(inputFile);
+        /* A single pass over the input collects the review data and creates the runs to merge */
+        String tmpDirName = createTempDir(dir);
+        InversionEngine inversion = (engine == Engine.SPIMI) ? new SpimiIndexer(tmpDirName) : new Sorter(tmpDirName);
+        ReviewsParser parser = new ParsePipeline(numOfThreads, runMemoryBudget).run(inputFile, inversion);
 
         ReviewData rd = new ReviewData(parser.getProductIds(), parser.getReviewHelpfulnessNumerator(),
                 parser.getReviewHelpfulnessDenominator(), parser.getReviewScore(),
@@ -63,28 +191,34 @@ public class IndexWriter{
         rd.clear();
         parser.clear();
 
-        String tmpDirName = createTempDir(dir);
-        Sorter sorter = new Sorter(new ArrayList<>(parser.getTokenSet()),
-                                   new ArrayList<>(parser.getProductIdSet()),
-                                   tmpDirName);
-        sorter.sort(inputFile, sortedTokensFilePath, sortedProductsFilePath);
-        removeIndex(tmpDirName);
-
+        inversion.prepareMerge();
+        numOfRuns = inversion.getNumOfRuns();
+        runBytes = inversion.getRunBytes();
 
-        Dictionary tokenDict = buildDictionary(parser.getNumOfTokens(), sortedTokensFilePath,
-                false, dir, sorter.getTokensArray());
-        Dictionary productDict = buildDictionary(parser.getNumOfproducts(), sortedProductsFilePath,
-                true, dir, sorter.getProductIdsArray());
+        Dictionary tokenDict = buildDictionary(inversion.getTokensArray().size(), inversion.mergeTokens(),
+                sortedTokensFilePath, false, dir, inversion.getTokensArray());
+        Dictionary productDict = buildDictionary(inversion.getProductIdsArray().size(), inversion.mergeProducts(),
+                sortedProductsFilePath, true, dir, inversion.getProductIdsArray());
+        removeIndex(tmpDirName);
+        postingListsBytes = new File(dir, tokenPostingListFileName).length() +
+                new File(dir, productPostingListFileName).length();
 
         try {
             /* Write the new files */
-            ObjectOutputStream tokenDictWriter = new ObjectOutputStream(new FileOutputStream(dir + File.separator + tokenDictFileName));
-            tokenDictWriter.writeObject(tokenDict);
-            tokenDictWriter.close();
-
-            ObjectOutputStream productDictWriter = new ObjectOutputStream(new FileOutputStream(dir + File.separator + productDictFileName));
-            productDictWriter.writeObject(productDict);
-            productDictWriter.close();
+            tokenDict.save(dir + File.separator + tokenDictFileName);
+            productDict.save(dir + File.separator + productDictFileName);
+            productDict.saveProductIdTable(dir + File.separator + productDictFileName);
+            if (perfectHash) {
+                tokenDict.savePerfectHash(dir + File.separator + tokenDictFileName);
+                productDict.savePerfectHash(dir + File.separator + productDictFileName);
+            }
+            filterBytes = 0;
+            if (filterFalsePositiveRate > 0) {
+                filterBytes += tokenDict.saveBloomFilter(dir + File.separator + tokenDictFileName,
+                                                         filterFalsePositiveRate);
+                filterBytes += productDict.saveBloomFilter(dir + File.separator + productDictFileName,
+                                                           filterFalsePositiveRate);
+            }
         } catch(IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -132,6 +266,11 @@ public class IndexWriter{
     private void removeFiles(String dir) {
         deleteFile(dir, tokenDictFileName);
         deleteFile(dir, productDictFileName);
+        deleteFile(dir, tokenDictFileName + Dictionary.PERFECT_HASH_SUFFIX);
+        deleteFile(dir, productDictFileName + Dictionary.PERFECT_HASH_SUFFIX);
+        deleteFile(dir, tokenDictFileName + Dictionary.BLOOM_FILTER_SUFFIX);
+        deleteFile(dir, productDictFileName + Dictionary.BLOOM_FILTER_SUFFIX);
+        deleteFile(dir, productDictFileName + Dictionary.PRODUCT_ID_TABLE_SUFFIX);
         deleteFile(dir, reviewDataFileName);
         deleteFile(dir, productPostingListFileName);
         deleteFile(dir, tokenPostingListFileName);
@@ -151,21 +290,30 @@ public class IndexWriter{
 
     /**
      * Build a dictionary object
-     * @param numOfTerms Number of terms in the file
-     * @param out The sorted file of terms
+     * @param numOfTerms Number of terms in the file, or an estimate of it if it is not known before the merge
+     * @param merged The last merge step of the sorted terms
+     * @param out The sorted file of terms, used if the last merge step is not streamed
      * @param isProduct Indicates if the term is productId or token
      * @param dir The directory in which the dictionary is saved
      * @param mapping A map of a number to term (i is mapped to the string at index i)
      * @return The built dictionary
      */
-    private Dictionary buildDictionary(int numOfTerms, String out, Boolean isProduct, String dir,
-                                       ArrayList<String> mapping) {
-        Dictionary dict = new Dictionary(numOfTerms, out, isProduct, dir, mapping);
-        /* Delete sorted */
+    private Dictionary buildDictionary(int numOfTerms, PostingSource merged, String out, Boolean isProduct,
+                                       String dir, ArrayList<String> mapping) {
+        if (streamFinalMerge) {
+            return new Dictionary(numOfTerms, merged, isProduct, dir, mapping, codec);
+        }
+        Dictionary dict = null;
         try {
+            try (RunFileWriter writer = new RunFileWriter(out)) {
+                writer.writeAll(merged);
+            }
+            dict = new Dictionary(numOfTerms, new RunFileReader(out), isProduct, dir, mapping, codec);
+            /* Delete sorted */
             Files.deleteIfExists(Paths.get(out));
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println(e.getMessage());
+            System.exit(1);
         }
         return dict;
     }
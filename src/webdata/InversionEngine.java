@@ -0,0 +1,61 @@
+package webdata;
+
+import webdata.utils.PostingSource;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * A way of building the index: creates the inverters the input is parsed into, and merges the blocks they wrote to
+ * sorted streams of (term, reviewId, frequency) records, from which the dictionaries are built.
+ */
+abstract class InversionEngine {
+
+    /**
+     * Create an inverter for a part of the input.
+     * @param blockWriter Executes the writing of the blocks of the inverter
+     * @param blockBudget The size in bytes of the data of a block
+     * @return The new inverter
+     */
+    abstract Inverter newInverter(Executor blockWriter, long blockBudget);
+
+    /**
+     * Prepare the merge, once all inverters were flushed and all blocks were written.
+     */
+    abstract void prepareMerge();
+
+    /**
+     * Merge the token blocks.
+     * @return The sorted token records, where every token is replaced by it's position in getTokensArray
+     */
+    abstract PostingSource mergeTokens();
+
+    /**
+     * Merge the product id blocks.
+     * @return The sorted product id records, where every product id is replaced by it's position in
+     *         getProductIdsArray
+     */
+    abstract PostingSource mergeProducts();
+
+    /**
+     * Get the sorted token Strings. Depending on the engine it may only be complete once the tokens are merged, but
+     * it always holds the tokens of the records returned so far.
+     */
+    abstract ArrayList<String> getTokensArray();
+
+    /**
+     * Get the sorted product id Strings. Depending on the engine it may only be complete once the product ids are
+     * merged, but it always holds the product ids of the records returned so far.
+     */
+    abstract ArrayList<String> getProductIdsArray();
+
+    /**
+     * Return the number of blocks that were written
+     */
+    abstract int getNumOfRuns();
+
+    /**
+     * Return the total size in bytes of the data of all blocks
+     */
+    abstract long getRunBytes();
+}
@@ -0,0 +1,40 @@
+package webdata;
+
+/**
+ * Inverts a part of the input: collects the product id and the tokens of every review it is given, and writes them
+ * to disk in blocks that the InversionEngine it belongs to merges once the whole input was parsed.
+ * Every parsing thread has it's own inverter.
+ */
+abstract class Inverter {
+
+    /**
+     * Set the id of the next review this inverter is given. The reviews given to an inverter don't have to be
+     * consecutive, but their ids must increase.
+     * @param firstReviewId The id of the next review
+     */
+    abstract void setNextReviewId(int firstReviewId);
+
+    /**
+     * Start a new review of the given product.
+     * @param productId The product id of the review
+     */
+    abstract void addProductId(String productId);
+
+    /**
+     * Add a token of the current review.
+     * @param data Array holding the (lowercased) token
+     * @param from First byte of the token
+     * @param length Length of the token
+     */
+    abstract void addToken(byte[] data, int from, int length);
+
+    /**
+     * End the current review.
+     */
+    abstract void endReview();
+
+    /**
+     * Write the reviews added since the last block as a new block.
+     */
+    abstract void flush();
+}
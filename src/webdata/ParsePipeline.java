@@ -0,0 +1,180 @@
+package webdata;
+
+import webdata.utils.InputChunks;
+import webdata.utils.LineReader;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+
+/**
+ * The first part of the index construction: parse the input, invert it to sorted runs and spill them to disk.
+ * The work is done by stages connected with bounded queues:
+ * a reader thread maps the input in batches that start at a review boundary, tokenizer workers parse the batches
+ * (each with it's own inverter, which sorts a run when it is full), and run writers write the sorted runs.
+ * A full queue blocks the stage that feeds it, so the number of batches and runs in memory is bounded no matter
+ * how big the input is.
+ */
+class ParsePipeline {
+
+    private static final long BATCH_SIZE = 1 << 24;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    /* Marks the end of the input in the batches queue */
+    private static final Batch END = new Batch(-1, null);
+
+    private final int numOfWorkers;
+    private final int numOfWriters;
+    private final long runBudget;
+    private final BlockingQueue<Batch> batches;
+    private final ThreadPoolExecutor runWriters;
+
+    /* The parser of every batch, by the number of the batch */
+    private final ConcurrentHashMap<Integer, ReviewsParser> parsers = new ConcurrentHashMap<>();
+
+    /* The review counts of batches whose first review id is not known yet, and the first review ids of batches
+       that were not given to their workers yet */
+    private final HashMap<Integer, Integer> counts = new HashMap<>();
+    private final HashMap<Integer, Integer> firstReviewIds = new HashMap<>();
+    private int numOfNumberedBatches = 0;
+    private int nextReviewId = 1;
+
+    /**
+     * A part of the input, starting at a review boundary.
+     */
+    private static class Batch {
+        final int number;
+        final MappedByteBuffer data;
+
+        Batch(int number, MappedByteBuffer data) {
+            this.number = number;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param numOfThreads The number of tokenizer workers (the number of run writers is derived from it)
+     * @param memoryBudget The size in bytes of all postings held in memory at once
+     */
+    ParsePipeline(int numOfThreads, long memoryBudget) {
+        numOfWorkers = numOfThreads;
+        numOfWriters = Math.max(1, numOfThreads / 4);
+        /* Every worker fills a run and may hold a second one (the sorted copy of it's previous run, until a writer
+           takes it), while the writers write a run each and have a run each waiting in their queue */
+        runBudget = Math.max(1, memoryBudget / (2 * numOfWorkers + 2 * numOfWriters));
+        batches = new ArrayBlockingQueue<>(2 * numOfWorkers);
+        /* Block a worker that hands a run while all writers are busy and the queue is full */
+        runWriters = new ThreadPoolExecutor(numOfWriters, numOfWriters, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(numOfWriters), (run, executor) -> {
+            try {
+                executor.getQueue().put(run);
+            } catch (InterruptedException e) {
+                throw new RejectedExecutionException(e);
+            }
+        });
+    }
+
+    /**
+     * Parse the input file, building and writing the runs of the given engine.
+     * @param inputFile The path to the file containing the review data
+     * @param engine The engine the runs are built for
+     * @return A parser holding the data of all reviews
+     */
+    ReviewsParser run(String inputFile, InversionEngine engine) {
+        ExecutorService workers = Executors.newFixedThreadPool(numOfWorkers + 1);
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+            Future<Integer> reader = workers.submit(() -> read(channel));
+            ArrayList<Future<?>> tokenizers = new ArrayList<>();
+            for (int i = 0; i < numOfWorkers; ++i) {
+                final Inverter builder = engine.newInverter(runWriters, runBudget);
+                tokenizers.add(workers.submit(() -> {
+                    tokenize(builder);
+                    return null;
+                }));
+            }
+
+            int numOfBatches = reader.get();
+            for (Future<?> tokenizer: tokenizers) {
+                tokenizer.get();
+            }
+            runWriters.shutdown();
+            runWriters.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+            ReviewsParser parser = new ReviewsParser();
+            for (int i = 0; i < numOfBatches; ++i) {
+                parser.append(parsers.get(i));
+            }
+            return parser;
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            workers.shutdown();
+        }
+        return null;  // Will never happen
+    }
+
+    /**
+     * The reader stage: map the input batch by batch, and load every batch to memory ahead of the workers.
+     * @param channel The input file
+     * @return The number of batches
+     */
+    private int read(FileChannel channel) throws IOException, InterruptedException {
+        int number = 0;
+        long from = 0;
+        long size = channel.size();
+        do {
+            long to = InputChunks.nextBound(channel, from, BATCH_SIZE);
+            MappedByteBuffer data = InputChunks.map(channel, from, to);
+            data.load();
+            batches.put(new Batch(number++, data));
+            from = to;
+        } while (from < size);
+        for (int i = 0; i < numOfWorkers; ++i) {
+            batches.put(END);
+        }
+        return number;
+    }
+
+    /**
+     * The tokenizer stage: parse batches into the given inverter until the input ends, and flush it.
+     * @param builder The inverter of this worker
+     */
+    private void tokenize(Inverter builder) throws IOException, InterruptedException {
+        Batch batch;
+        while ((batch = batches.take()) != END) {
+            int count = ReviewsParser.countReviews(new LineReader(batch.data.duplicate(), READ_BUFFER_SIZE));
+            builder.setNextReviewId(firstReviewId(batch.number, count));
+            ReviewsParser parser = new ReviewsParser();
+            parser.parse(new LineReader(batch.data, READ_BUFFER_SIZE), builder);
+            parsers.put(batch.number, parser);
+        }
+        builder.flush();
+    }
+
+    /**
+     * Return the id of the first review of the given batch, once the number of reviews of all batches before it is
+     * known. Batches are taken in order, so this only waits for the counting (not the parsing) of earlier batches.
+     * @param batchNumber The number of the batch
+     * @param count The number of reviews in the batch
+     * @return The id of the first review of the batch
+     */
+    private synchronized int firstReviewId(int batchNumber, int count) throws InterruptedException {
+        counts.put(batchNumber, count);
+        while (counts.containsKey(numOfNumberedBatches)) {
+            firstReviewIds.put(numOfNumberedBatches, nextReviewId);
+            nextReviewId += counts.remove(numOfNumberedBatches++);
+            notifyAll();
+        }
+        while (numOfNumberedBatches <= batchNumber) {
+            wait();
+        }
+        return firstReviewIds.remove(batchNumber);
+    }
+}
@@ -0,0 +1,227 @@
+package webdata;
+
+import webdata.utils.PostingCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Iterates over the postings of a term by review id, reading and decoding it's posting list from the posting file a
+ * skip block at a time, so only one block of postings is in memory (as primitive ints).
+ * A posting list of more than skipInterval postings starts with it's number of postings (an int) and a skip table,
+ * with the last review id of every block and the position of the end of the block (relative to the first block)
+ * (ints), followed by the blocks. A shorter list is a single block, with no skip table.
+ * Every block is the encoded review ids of it's postings, followed by their frequencies in token posting lists.
+ * advance uses the skip table to find the block of the target review, so the blocks before it are never read.
+ */
+public final class PostingsCursor {
+
+    /* The review id of the cursor once it is past the last posting */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    /* The size of an entry of the skip table */
+    static final int SKIP_ENTRY_SIZE = 2 * Integer.BYTES;
+    /* The number of bytes read when the cursor is opened, which hold all of most posting lists */
+    private static final int FIRST_READ_SIZE = 512;
+
+    private final FileChannel channel;
+    private final PostingCodec codec;
+    private final boolean hasFrequencies;
+    private final int numOfPostings;
+    private final int numOfBlocks;
+    private final ByteBuffer skipTable;
+    private final long blocksPos;
+    private final long endPos;
+
+    /* The bytes last read from the posting file, and their position in it */
+    private ByteBuffer buffer;
+    private long bufferPos;
+
+    /* The decoded block, and the posting of the cursor in it */
+    private final int[] reviews;
+    private final int[] frequencies;
+    private int block = -1;
+    private int numInBlock = 0;
+    private int index = -1;
+    private int doc = -1;
+    private int numOfDecodedBlocks = 0;
+
+    /**
+     * Constructor
+     * @param channel The posting file
+     * @param pos The position of the posting list in the file
+     * @param endPos The position of the end of the posting list in the file
+     * @param codec The codec of the posting list
+     * @param hasFrequencies Indicates if the blocks have frequencies (token posting lists)
+     * @param skipInterval The number of postings of every block
+     * @throws IOException
+     */
+    PostingsCursor(FileChannel channel, long pos, long endPos, PostingCodec codec, boolean hasFrequencies,
+                   int skipInterval) throws IOException {
+        this.channel = channel;
+        this.codec = codec;
+        this.hasFrequencies = hasFrequencies;
+        this.endPos = endPos;
+        buffer = ByteBuffer.allocate((int) Math.min(endPos - pos, FIRST_READ_SIZE));
+        bufferPos = pos;
+        Dictionary.readFully(channel, pos, buffer);
+        numOfPostings = buffer.getInt(0);
+        numOfBlocks = (numOfPostings + skipInterval - 1) / skipInterval;
+        if (numOfBlocks > 1) {
+            skipTable = ByteBuffer.allocate(numOfBlocks * SKIP_ENTRY_SIZE);
+            if (Integer.BYTES + skipTable.capacity() <= buffer.limit()) {
+                ByteBuffer table = buffer.duplicate();
+                table.position(Integer.BYTES).limit(Integer.BYTES + skipTable.capacity());
+                skipTable.put(table);
+            } else {
+                Dictionary.readFully(channel, pos + Integer.BYTES, skipTable);
+            }
+            blocksPos = pos + Integer.BYTES + skipTable.capacity();
+        } else {
+            skipTable = null;
+            blocksPos = pos;
+        }
+        int blockSize = Math.min(numOfPostings, skipInterval);
+        reviews = new int[blockSize];
+        frequencies = (hasFrequencies) ? new int[blockSize] : null;
+    }
+
+    /**
+     * Constructor of a cursor with no postings
+     */
+    private PostingsCursor() {
+        channel = null;
+        codec = null;
+        hasFrequencies = false;
+        numOfPostings = numOfBlocks = 0;
+        skipTable = null;
+        blocksPos = endPos = 0;
+        reviews = frequencies = null;
+    }
+
+    /**
+     * Return a cursor with no postings
+     */
+    static PostingsCursor empty() {
+        return new PostingsCursor();
+    }
+
+    /**
+     * Return the number of postings
+     */
+    public int size() { return numOfPostings; }
+
+    /**
+     * Return the review id of the current posting, -1 before the first call to nextDoc or advance, or NO_MORE_DOCS
+     * after the last posting
+     */
+    public int docId() { return doc; }
+
+    /**
+     * Return the number of times the term appears in the review of the current posting (1 for products)
+     */
+    public int freq() {
+        return (hasFrequencies) ? frequencies[index] : 1;
+    }
+
+    /**
+     * Move to the next posting.
+     * @return It's review id, or NO_MORE_DOCS if there are no more postings
+     */
+    public int nextDoc() {
+        if (++index >= numInBlock) {
+            if (block + 1 >= numOfBlocks) {
+                index = numInBlock;
+                return doc = NO_MORE_DOCS;
+            }
+            readBlock(block + 1);
+            index = 0;
+        }
+        return doc = reviews[index];
+    }
+
+    /**
+     * Move to the first posting whose review id is at least the target, skipping the blocks before it's block
+     * without reading them. The cursor doesn't move if it is already at such a posting.
+     * @param target The review id
+     * @return The review id of the posting, or NO_MORE_DOCS if there is no such posting
+     */
+    public int advance(int target) {
+        if (doc >= target) {
+            return doc;
+        }
+        if (numOfBlocks > 1 && (block < 0 || lastReview(block) < target)) {
+            /* Find the first block that ends at or after the target */
+            int low = block + 1;
+            int high = numOfBlocks;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lastReview(mid) < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == numOfBlocks) {
+                block = numOfBlocks - 1;
+                index = numInBlock = 0;
+                return doc = NO_MORE_DOCS;
+            }
+            readBlock(low);
+        }
+        while (nextDoc() < target) {
+            // The target is in the current block (or after the last posting of a single block list)
+        }
+        return doc;
+    }
+
+    /**
+     * Return the number of blocks decoded so far
+     */
+    int getNumOfDecodedBlocks() { return numOfDecodedBlocks; }
+
+    /**
+     * Return the last review id of the given block, from the skip table
+     */
+    private int lastReview(int b) {
+        return skipTable.getInt(b * SKIP_ENTRY_SIZE);
+    }
+
+    /**
+     * Return the position in the posting file of the end of the given block
+     */
+    private long blockEnd(int b) {
+        return (numOfBlocks > 1) ? blocksPos + skipTable.getInt(b * SKIP_ENTRY_SIZE + Integer.BYTES) : endPos;
+    }
+
+    /**
+     * Read and decode the given block, and move the cursor to before it's first posting.
+     * @param b The block
+     */
+    private void readBlock(int b) {
+        long start = (b == 0) ? blocksPos : blockEnd(b - 1);
+        int size = (int) (blockEnd(b) - start);
+        try {
+            if (start < bufferPos || start + size > bufferPos + buffer.limit()) {
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocate(size);
+                }
+                buffer.clear().limit(size);
+                bufferPos = start;
+                Dictionary.readFully(channel, start, buffer);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) (start - bufferPos));
+        numInBlock = codec.decode(in, true, reviews);
+        if (hasFrequencies) {
+            codec.decode(in, false, frequencies);
+        }
+        block = b;
+        index = -1;
+        ++numOfDecodedBlocks;
+    }
+}
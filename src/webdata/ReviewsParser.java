@@ -1,18 +1,20 @@
 package webdata;
 
-import java.io.*;
+import webdata.utils.LineReader;
+import webdata.utils.Tokenizer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashSet;
 
 /**
- * A parser for a file of reviews.
+ * A parser for a file of reviews (or for a part of it).
+ * The review data is kept in this instance, while the terms of each review are handed to an Inverter so the whole
+ * index is built in a single pass over the input.
  */
 public class ReviewsParser {
 
     /* Data */
-    private HashSet<String> tokenSet = new HashSet<>();
-    private HashSet<String> productIdSet = new HashSet<>();
-
     private ArrayList<Byte> reviewScore = new ArrayList<>();
     private ArrayList<Short> reviewHelpfulnessNumerator = new ArrayList<>();
     private ArrayList<Short> reviewHelpfulnessDenominator = new ArrayList<>();
@@ -20,8 +22,11 @@ public class ReviewsParser {
     private int numOfReviews = 0;
     private StringBuilder productIds = new StringBuilder();
 
-    /* String constants */
-    private final String SPLIT_TOKENS_REGEX = "[^A-Za-z0-9]+";
+    /* Line prefixes */
+    private static final byte[] PRODUCT_ID_PREFIX = "product/productId: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HELPFULNESS_PREFIX = "review/helpfulness: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORE_PREFIX = "review/score: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TEXT_PREFIX = "review/text:".getBytes(StandardCharsets.US_ASCII);
 
     /**
      * Empty the data structures stored in this instance.
@@ -35,16 +40,6 @@ public class ReviewsParser {
         productIds = new StringBuilder();
     }
 
-    /**
-     * Return the tokens HashSet
-     */
-    HashSet<String> getTokenSet() { return tokenSet; }
-
-    /**
-     * Return the productIds HashSet
-     */
-    HashSet<String> getProductIdSet() { return productIdSet; }
-
     /**
      * Return the review scores as an ArrayList of Strings
      */
@@ -86,109 +81,119 @@ public class ReviewsParser {
     int getNumOfReviews() { return numOfReviews;}
 
     /**
-     * Return the number unique tokens
+     * Parse a line resembling a review helpfulness to it's numerator and denominator.
+     * @param reader The reader, at the line to parse
      */
-    int getNumOfTokens() { return tokenSet.size(); }
-
-    /**
-     * Return the number of unique products
-     */
-    int getNumOfproducts() { return productIdSet.size(); }
+    private void writeReviewHelpfulness(LineReader reader) {
+        int lineLength = reader.getLineEnd() - reader.getLineStart();
+        int slash = reader.indexOf((byte) '/', HELPFULNESS_PREFIX.length);
+        reviewHelpfulnessNumerator.add((short) reader.parseInt(HELPFULNESS_PREFIX.length, slash));
+        reviewHelpfulnessDenominator.add((short) reader.parseInt(slash + 1, lineLength));
+    }
 
     /**
-     * Break a text to all it's tokens (alphanumeric).
-     * @param text The text to break
+     * Parse a line resembling a review score.
+     * @param reader The reader, at the line to parse
      */
-    private void breakText(String text) {
-        String[] tokens = text.split(SPLIT_TOKENS_REGEX);
-        int tokenCounter = 0;
-        for (String token: tokens) {
-            if (!token.isEmpty()) {
-                tokenSet.add(token);
-
-                ++tokenCounter;
-            }
-        }
-        tokensPerReview.add((short) tokenCounter);
+    private void writeReviewScore(LineReader reader) {
+        int dot = reader.indexOf((byte) '.', SCORE_PREFIX.length);
+        reviewScore.add((byte) reader.parseInt(SCORE_PREFIX.length, dot));
     }
 
     /**
-     * Parse a string resembling a review helpfulness to it's numerator and denominator.
-     * @param term The review helpfulness as String
+     * Append the data of the given parser, which parsed the part of the input that comes right after the part
+     * parsed by this parser.
+     * @param other The other parser
      */
-    private void writeReviewHelpfulness(String term) {
-        String[] split = term.split("/");
-        reviewHelpfulnessNumerator.add(Short.parseShort(split[0]));
-        reviewHelpfulnessDenominator.add(Short.parseShort(split[1]));
+    void append(ReviewsParser other) {
+        reviewScore.addAll(other.reviewScore);
+        reviewHelpfulnessNumerator.addAll(other.reviewHelpfulnessNumerator);
+        reviewHelpfulnessDenominator.addAll(other.reviewHelpfulnessDenominator);
+        tokensPerReview.addAll(other.tokensPerReview);
+        numOfReviews += other.numOfReviews;
+        productIds.append(other.productIds);
     }
 
     /**
-     * Parse a string resembling a review score.
-     * @param term The review helpfulness as String
+     * Count the reviews in the input, without parsing them.
+     * @param reader The reader of the input
+     * @return The number of reviews
+     * @throws IOException
      */
-    private void writeReviewScore(String term) {
-        reviewScore.add(Byte.parseByte(term.split("\\.")[0]));
+    static int countReviews(LineReader reader) throws IOException {
+        int count = 0;
+        while (reader.readLine()) {
+            if (reader.startsWith(PRODUCT_ID_PREFIX)) {
+                ++count;
+            }
+        }
+        return count;
     }
 
     /**
-     * Parse the file
-     * @param inputFile The file to parse
+     * Parse the input
+     * @param reader The reader of the input
+     * @param sorter The inverter to add the product ids and tokens of the reviews to
      */
-    void parseFile(String inputFile) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(inputFile)), (int)Math.pow(2, 20))){
-            String line = reader.readLine();
-            String textBuffer = "";
+    void parse(LineReader reader, Inverter sorter) {
+        try {
+            Tokenizer.TokenConsumer consumer = sorter::addToken;
             boolean textFlag = false;
-            String term;
-            while (line != null){
-
-                if (textFlag && !line.startsWith("product/productId: ")) {
-                    textBuffer = textBuffer.concat(" ").concat(line);
-                    line = reader.readLine();
-                    continue;
-                }
+            int tokenCounter = 0;
+            while (reader.readLine()){
+                byte[] buf = reader.getBuffer();
 
-                if (line.startsWith("product/productId: ")) {
-                    textFlag = false;
-                    if (!textBuffer.isEmpty()) {
-                        breakText(textBuffer.toLowerCase());
+                if (reader.startsWith(PRODUCT_ID_PREFIX)) {
+                    if (textFlag) {
+                        endReview(tokenCounter, sorter);
                     }
+                    textFlag = false;
                     ++numOfReviews;
-                    term = line.substring(19);
+                    String term = reader.substring(PRODUCT_ID_PREFIX.length);
                     productIds.append(term);
-                    productIdSet.add(term);
-                    line = reader.readLine();
+                    sorter.addProductId(term);
                     continue;
                 }
 
-                if (line.startsWith("review/helpfulness: ")) {
-                    writeReviewHelpfulness(line.substring(20));
-                    line = reader.readLine();
+                /* Every line after the text line is a part of the text, until the next review */
+                if (textFlag) {
+                    tokenCounter += Tokenizer.tokenize(buf, reader.getLineStart(), reader.getLineEnd(), consumer);
                     continue;
                 }
 
-                if (line.startsWith("review/score: ")) {
-                    writeReviewScore(line.substring(14));
-                    line = reader.readLine();
+                if (reader.startsWith(HELPFULNESS_PREFIX)) {
+                    writeReviewHelpfulness(reader);
                     continue;
                 }
 
-                if (line.startsWith("review/text:")) {
-                    textFlag = true;
-                    textBuffer = line.substring(12);
-                    line = reader.readLine();
+                if (reader.startsWith(SCORE_PREFIX)) {
+                    writeReviewScore(reader);
                     continue;
                 }
 
-                line = reader.readLine();
+                if (reader.startsWith(TEXT_PREFIX)) {
+                    textFlag = true;
+                    tokenCounter = Tokenizer.tokenize(buf, reader.getLineStart() + TEXT_PREFIX.length,
+                                                      reader.getLineEnd(), consumer);
+                }
             }
 
-            if (!textBuffer.isEmpty()) {
-                breakText(textBuffer.toLowerCase());
+            if (textFlag) {
+                endReview(tokenCounter, sorter);
             }
         } catch (IOException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
     }
+
+    /**
+     * Record the number of tokens of the review that was just parsed, and end it in the sorter.
+     * @param tokenCounter The number of tokens in the review's text
+     * @param sorter The inverter the tokens were added to
+     */
+    private void endReview(int tokenCounter, Inverter sorter) {
+        tokensPerReview.add((short) tokenCounter);
+        sorter.endReview();
+    }
 }
@@ -0,0 +1,301 @@
+package webdata;
+
+import webdata.utils.RunFileWriter;
+import webdata.utils.TermTable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds the sorted runs (the first phase of the sort) of a part of the input.
+ * Every builder keeps it's own vocabulary, so builders of different parts of the input can work in parallel. The
+ * term ids are given by order of appearance, and the Sorter maps them to the global vocabulary when merging.
+ * A run is sorted by the builder, and written to disk by the run writer it is given.
+ * The vocabulary is kept across runs, so it's bytes are taken from the budget of the postings of a run. A quarter
+ * of the budget is always left to the postings, so a vocabulary that outgrows the budget doesn't shrink the runs to
+ * a few reviews each.
+ */
+class RunBuilder extends Inverter {
+    /* Data */
+    private ArrayList<String> tokensArray = new ArrayList<>();
+    private ArrayList<String> productIdsArray = new ArrayList<>();
+    private TermTable tokensTable = new TermTable();
+    private HashMap<String, Integer> productIdMap = new HashMap<>();
+
+    /* The id of the current review */
+    private int reviewId;
+    private int numOfReviewsInRun = 0;
+
+    /* A run is written once it's postings and the vocabulary take this many bytes */
+    private final long runBudget;
+    /* The estimated size in bytes of the vocabulary */
+    private long vocabularyBytes = 0;
+
+    /* The token ids of the current review */
+    private int[] reviewTokens = new int[1024];
+    private int numOfReviewTokens = 0;
+
+    /* The postings added since the last run */
+    private Postings tokenPostings = new Postings(INITIAL_RUN_CAPACITY, true);
+    private Postings productIdPostings = new Postings(INITIAL_RUN_CAPACITY, false);
+
+    /* The rank of every term id in the run being sorted, -1 for terms not in it */
+    private int[] termRank = new int[0];
+
+    /* The sorter this builder writes runs for, and the writer of the runs */
+    private Sorter sorter;
+    private Executor runWriter;
+
+    private static final int INITIAL_RUN_CAPACITY = 1 << 16;
+    /* Estimated size in bytes of the objects, table slots and array slots of a term, besides it's bytes */
+    private static final int TERM_OVERHEAD = 96;
+
+    /**
+     * The postings of a run, packed to primitive arrays: the term id and the review id of every posting in a long
+     * (term in the high half), and it's frequency in an int.
+     */
+    private static final class Postings {
+        private long[] entries;
+        private int[] frequencies;  // Null if all frequencies are 1
+        private int size = 0;
+
+        /**
+         * Constructor
+         * @param capacity The initial number of postings it can hold
+         * @param withFrequencies Whether to keep the frequencies, or to treat all of them as 1
+         */
+        Postings(int capacity, boolean withFrequencies) {
+            entries = new long[capacity];
+            frequencies = withFrequencies ? new int[capacity] : null;
+        }
+
+        void add(int term, int reviewId, int freq) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+                if (frequencies != null) {
+                    frequencies = Arrays.copyOf(frequencies, size * 2);
+                }
+            }
+            entries[size] = ((long) term << 32) | reviewId;
+            if (frequencies != null) {
+                frequencies[size] = freq;
+            }
+            ++size;
+        }
+
+        int getTerm(int i) { return (int) (entries[i] >>> 32); }
+
+        int getReviewId(int i) { return (int) entries[i]; }
+
+        int getFrequency(int i) { return (frequencies == null) ? 1 : frequencies[i]; }
+
+        /**
+         * Return the number of bytes the postings take
+         */
+        long getBytes() { return (long) size * ((frequencies == null) ? Long.BYTES : Long.BYTES + Integer.BYTES); }
+    }
+
+    /**
+     * Constructor
+     * @param sorter The sorter that will merge the runs
+     * @param runWriter Executes the writing of the runs
+     * @param runBudget The size in bytes of the postings of a run and the vocabulary
+     */
+    RunBuilder(Sorter sorter, Executor runWriter, long runBudget) {
+        this.sorter = sorter;
+        this.runWriter = runWriter;
+        this.runBudget = runBudget;
+    }
+
+    /**
+     * Set the id of the next review this builder is given. The reviews given to the builder don't have to be
+     * consecutive.
+     * @param firstReviewId The id of the next review
+     */
+    @Override
+    void setNextReviewId(int firstReviewId) {
+        this.reviewId = firstReviewId - 1;
+    }
+
+    /**
+     * Get the token Strings by their ids
+     */
+    ArrayList<String> getTokensArray() { return tokensArray; }
+
+    /**
+     * Get the product id Strings by their ids
+     */
+    ArrayList<String> getProductIdsArray() { return productIdsArray; }
+
+    /**
+     * Clear the vocabulary lookup tables, which are not needed once all reviews were added.
+     */
+    void clear() {
+        tokensTable = null;
+        productIdMap = null;
+    }
+
+    /**
+     * Get the id of the given term, giving it the next free id if it wasn't seen before.
+     * @param term The term
+     * @param map Map of term to id
+     * @param array The terms by their ids
+     * @return The id of the term
+     */
+    private static int getId(String term, HashMap<String, Integer> map, ArrayList<String> array) {
+        Integer id = map.get(term);
+        if (id == null) {
+            id = array.size();
+            map.put(term, id);
+            array.add(term);
+        }
+        return id;
+    }
+
+    /**
+     * Start a new review of the given product.
+     * @param productId The product id of the review
+     */
+    @Override
+    void addProductId(String productId) {
+        ++reviewId;
+        long postingsBudget = Math.max(runBudget - vocabularyBytes, runBudget / 4);
+        if (numOfReviewsInRun > 0 && tokenPostings.getBytes() + productIdPostings.getBytes() >= postingsBudget) {
+            flush();
+        }
+        ++numOfReviewsInRun;
+        int numOfProductIds = productIdsArray.size();
+        int id = getId(productId, productIdMap, productIdsArray);
+        if (id == numOfProductIds) {
+            vocabularyBytes += productId.length() + TERM_OVERHEAD;
+        }
+        productIdPostings.add(id, reviewId, 1);
+    }
+
+    /**
+     * Add a token of the current review. A String is only created for tokens never seen before.
+     * @param data Array holding the (lowercased) token
+     * @param from First byte of the token
+     * @param length Length of the token
+     */
+    @Override
+    void addToken(byte[] data, int from, int length) {
+        int id = tokensTable.getOrAdd(data, from, length);
+        if (id == tokensArray.size()) {
+            tokensArray.add(new String(data, from, length, StandardCharsets.US_ASCII));
+            vocabularyBytes += 2 * length + TERM_OVERHEAD;  // In the String and in the table
+        }
+        if (numOfReviewTokens == reviewTokens.length) {
+            reviewTokens = Arrays.copyOf(reviewTokens, reviewTokens.length * 2);
+        }
+        reviewTokens[numOfReviewTokens++] = id;
+    }
+
+    /**
+     * End the current review, adding a posting for every distinct token in it with it's frequency.
+     */
+    @Override
+    void endReview() {
+        Arrays.sort(reviewTokens, 0, numOfReviewTokens);
+        int i = 0;
+        while (i < numOfReviewTokens) {
+            int id = reviewTokens[i];
+            int freq = 0;
+            while (i < numOfReviewTokens && reviewTokens[i] == id) {
+                ++freq;
+                ++i;
+            }
+            tokenPostings.add(id, reviewId, freq);
+        }
+        numOfReviewTokens = 0;
+    }
+
+    /**
+     * Sort the given postings by the String of their term, since term ids are given by order of appearance and not by
+     * order of the terms. The postings are added by order of review, so a stable counting sort on the rank of the
+     * terms in the run is enough to order them by term and then by review.
+     * @param run The postings to sort
+     * @param terms The terms by their ids
+     * @return New sorted postings (the given ones are left as they are, to be reused)
+     */
+    private Postings sortByTerm(Postings run, ArrayList<String> terms) {
+        if (termRank.length < terms.size()) {
+            termRank = new int[Math.max(terms.size(), termRank.length * 2)];
+            Arrays.fill(termRank, -1);
+        }
+
+        /* Rank the distinct terms of the run */
+        ArrayList<Integer> distinct = new ArrayList<>();
+        for (int i = 0; i < run.size; ++i) {
+            int term = run.getTerm(i);
+            if (termRank[term] == -1) {
+                termRank[term] = 0;
+                distinct.add(term);
+            }
+        }
+        distinct.sort(Comparator.comparing(terms::get));
+        int[] start = new int[distinct.size() + 1];
+        for (int rank = 0; rank < distinct.size(); ++rank) {
+            termRank[distinct.get(rank)] = rank;
+        }
+
+        /* Count the postings of every rank, and place every posting after the ones of lower ranks */
+        for (int i = 0; i < run.size; ++i) {
+            ++start[termRank[run.getTerm(i)] + 1];
+        }
+        for (int rank = 0; rank < distinct.size(); ++rank) {
+            start[rank + 1] += start[rank];
+        }
+        Postings sorted = new Postings(Math.max(1, run.size), run.frequencies != null);
+        for (int i = 0; i < run.size; ++i) {
+            int pos = start[termRank[run.getTerm(i)]]++;
+            sorted.entries[pos] = run.entries[i];
+            if (sorted.frequencies != null) {
+                sorted.frequencies[pos] = run.frequencies[i];
+            }
+        }
+        sorted.size = run.size;
+
+        for (int term: distinct) {
+            termRank[term] = -1;
+        }
+        return sorted;
+    }
+
+    /**
+     * Sort the postings added since the last run and hand them to the run writer as a new run.
+     */
+    @Override
+    void flush() {
+        int run = sorter.newRun(this, tokenPostings.getBytes() + productIdPostings.getBytes());
+        final Postings sortedTokens = sortByTerm(tokenPostings, tokensArray);
+        final Postings sortedProductIds = sortByTerm(productIdPostings, productIdsArray);
+        runWriter.execute(() -> {
+            writeRun(sortedTokens, sorter.getTokenRunPath(run));
+            writeRun(sortedProductIds, sorter.getProductRunPath(run));
+        });
+        numOfReviewsInRun = 0;
+        tokenPostings.size = 0;
+        productIdPostings.size = 0;
+    }
+
+    /**
+     * Writes the postings of a run to a temp file. The index can't be built without the run, so a failure to write
+     * it ends the program (the merge would otherwise go on without it). This runs in the run writer's thread, so
+     * any exception is caught here rather than lost in the thread pool.
+     * @param run The sorted postings to write.
+     * @param path The path of the temp file
+     */
+    private static void writeRun(Postings run, String path){
+        try (RunFileWriter writer = new RunFileWriter(path)){
+            for (int i = 0; i < run.size; ++i) {
+                writer.write(run.getTerm(i), run.getReviewId(i), run.getFrequency(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,331 +1,293 @@
 package webdata;
 
-import webdata.utils.Line;
-import webdata.utils.ReaderWrapper;
+import webdata.utils.LoserTree;
+import webdata.utils.PostingSource;
+import webdata.utils.RunFileReader;
+import webdata.utils.RunFileWriter;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * A class for sorting the dataset
  */
-public class Sorter {
+public class Sorter extends InversionEngine {
     /* Data */
-    private ArrayList<String> tokensArray;
-    private ArrayList<String> productIdsArray;
-    private HashMap<String, Integer> tokensMap;
-    private HashMap<String, Integer> productIdMap;
-    private int numOfReviews = 0;
+    private ArrayList<String> tokensArray = new ArrayList<>();
+    private ArrayList<String> productIdsArray = new ArrayList<>();
 
-    private ArrayList<webdata.utils.Line> tokenLines = new ArrayList<>();
-    private ArrayList<webdata.utils.Line> productIdLines = new ArrayList<>();
+    /* The builders of the runs, and the builder of every run */
+    private ArrayList<RunBuilder> builders = new ArrayList<>();
+    private ArrayList<RunBuilder> runOwners = new ArrayList<>();
 
-    /* String constants */
-    private static final String SPLIT_TOKENS_REGEX = "[^A-Za-z0-9]+";
+    /* The number of runs and the total size in bytes of their postings, kept after the sort */
+    private int numOfRuns = 0;
+    private long runBytes = 0;
 
     /* File paths to save the terms lists */
     private String tmpDir;
-    private static final int NUM_OF_REVIEWS_PER_FILE = 10000;
-    private static final String SORT_TEMP_TOKEN_FILE_NAME = "t_%d_%d.txt";
-    private static final String SORT_TEMP_PRODUCT_FILE_NAME = "p_%d_%d.txt";
-    private int numOfTempFiles = 0;
+    private static final String SORT_TEMP_TOKEN_FILE_NAME = "t_%d_%d.run";
+    private static final String SORT_TEMP_PRODUCT_FILE_NAME = "p_%d_%d.run";
     private final int M = 1000;
 
+    /* The rank of the terms of every run, and the number of runs, set once the sort is prepared */
+    private ArrayList<int[]> tokensRank;
+    private ArrayList<int[]> productIdsRank;
+    private int numOfTempFiles;
+    /* The read ahead buffers of the merged files, M of them are open at once */
+    private static final long MERGE_MEMORY = 1 << 28;
+    private static final int MIN_MERGE_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_MERGE_BUFFER_SIZE = 1 << 22;
+
     /**
      * Constructor
-     * @param tokensArray ArrayList of token Strings
-     * @param productIdsArray ArrayList of product id Strings
      * @param tmpDir Directory of temp files
      */
-    Sorter(ArrayList<String> tokensArray, ArrayList<String> productIdsArray, String tmpDir) {
-        Collections.sort(tokensArray);
-        this.tokensArray = tokensArray;
-        this.tokensMap = buildHashMap(tokensArray);
-
-        Collections.sort(productIdsArray);
-        this.productIdsArray = productIdsArray;
-        this.productIdMap = buildHashMap(productIdsArray);
-
+    Sorter(String tmpDir) {
         this.tmpDir = tmpDir;
     }
 
     /**
-     * Clear data members
+     * Get the ArrayList of token Strings (sorted, available once the sort is done)
      */
-    void clear() {
-        tokensMap = new HashMap<>();
-        productIdMap = new HashMap<>();
-    }
+    @Override
+    ArrayList<String> getTokensArray() { return tokensArray; }
 
     /**
-     * Build a hash table from the given ArrayList, where the String at index i is mapped to i.
-     * @param toConvert The ArrayList to build from
-     * @return The newly created HashMap
+     * Get the ArrayList of product id Strings (sorted, available once the sort is done)
      */
-    private static HashMap<String, Integer> buildHashMap(ArrayList<String> toConvert) {
-        HashMap<String, Integer> hmap = new HashMap<>();
-        for (int i = 0; i < toConvert.size(); ++i) {
-            hmap.put(toConvert.get(i), i);
-        }
-        return hmap;
-    }
+    @Override
+    ArrayList<String> getProductIdsArray() { return productIdsArray; }
 
     /**
-     * Get the ArrayList of token Strings
+     * Return the number unique tokens
      */
-    ArrayList<String> getTokensArray() { return tokensArray; }
+    int getNumOfTokens() { return tokensArray.size(); }
 
     /**
-     * Get the ArrayList of product id Strings
+     * Return the number of unique products
      */
-    ArrayList<String> getProductIdsArray() { return productIdsArray; }
+    int getNumOfProducts() { return productIdsArray.size(); }
 
     /**
-     * Break a text to all it's tokens (alphanumeric).
-     * @param text The text to break
+     * Return the number of runs that were created
      */
-    private void breakText(String text) {
-        ArrayList<String> tokens = new ArrayList<>(Arrays.asList(text.split(SPLIT_TOKENS_REGEX)));
-        Collections.sort(tokens);
-        String prevToken = "";
-        int freq = 1;
-        for (String token: tokens) {
-            if (!token.isEmpty()) {
-                if (!token.equals(prevToken)) {
-                    if (!prevToken.isEmpty()) {
-                        tokenLines.add(createLine(tokensMap.get(prevToken), freq));
-                    }
-                    prevToken = token;
-                    freq = 1;
-                } else {
-                    ++freq;
-                }
-            }
-        }
+    @Override
+    int getNumOfRuns() { return numOfRuns; }
 
-        if (!prevToken.isEmpty()) {
-            tokenLines.add(createLine(tokensMap.get(prevToken), freq));
-        }
-    }
+    /**
+     * Return the total size in bytes of the postings of all runs
+     */
+    @Override
+    long getRunBytes() { return runBytes; }
 
     /**
-     * Create a new line object
-     * @param term term of the line
-     * @param freq frequency of the term
-     * @return the new line object
+     * Create a builder for the runs of a part of the input.
+     * @param runWriter Executes the writing of the runs of the builder
+     * @param runBudget The size in bytes of the postings of a run
+     * @return The new builder
      */
-    private webdata.utils.Line createLine(int term, int freq){
-        return new webdata.utils.Line(term + "#" + numOfReviews + "#" + freq);
+    @Override
+    synchronized Inverter newInverter(Executor runWriter, long runBudget) {
+        RunBuilder builder = new RunBuilder(this, runWriter, runBudget);
+        builders.add(builder);
+        return builder;
     }
 
     /**
-     * Parse the file
-     * @param inputFile The file to parse
+     * Reserve the number of a new run.
+     * @param owner The builder of the run
+     * @param bytes The size in bytes of the postings of the run
+     * @return The number of the run
      */
-    void firstPhase(String inputFile) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(inputFile)))){
-            String line = reader.readLine();
-            String textBuffer = "";
-            boolean textFlag = false;
-            while (line != null){
-
-                if (textFlag && !line.startsWith("product/productId: ")) {
-                    textBuffer = textBuffer.concat(" ").concat(line);
-                    line = reader.readLine();
-                    continue;
-                }
+    synchronized int newRun(RunBuilder owner, long bytes) {
+        runOwners.add(owner);
+        ++numOfRuns;
+        runBytes += bytes;
+        return runOwners.size() - 1;
+    }
 
-                if (line.startsWith("product/productId: ")) {
-                    textFlag = false;
-                    if (!textBuffer.isEmpty()) {
-                        breakText(textBuffer.toLowerCase());
-                    }
-                    ++numOfReviews;
-                    if (numOfReviews % (NUM_OF_REVIEWS_PER_FILE + 1)  == 0) {
-                        createTempFiles();
-                    }
-                    productIdLines.add(createLine(productIdMap.get(line.substring(19)), 1));
-                    line = reader.readLine();
-                    continue;
-                }
+    /**
+     * Return the path of the token file of the given run
+     */
+    String getTokenRunPath(int run) {
+        return Paths.get(tmpDir, String.format(SORT_TEMP_TOKEN_FILE_NAME, 0, run)).toString();
+    }
 
-                if (line.startsWith("review/text:")) {
-                    textFlag = true;
-                    textBuffer = line.substring(12);
-                    line = reader.readLine();
-                    continue;
-                }
+    /**
+     * Return the path of the product file of the given run
+     */
+    String getProductRunPath(int run) {
+        return Paths.get(tmpDir, String.format(SORT_TEMP_PRODUCT_FILE_NAME, 0, run)).toString();
+    }
 
-                line = reader.readLine();
-            }
+    /**
+     * Build the sorted vocabulary of all builders, and map the term ids of every run to their rank in it.
+     * @param sorted Populated with the sorted vocabulary
+     * @param isProduct Indicates if the terms are productIds or tokens
+     * @return The rank of every term id, by the run the id is used in
+     */
+    private ArrayList<int[]> rankTerms(ArrayList<String> sorted, boolean isProduct) {
+        HashSet<String> vocabulary = new HashSet<>();
+        for (RunBuilder builder: builders) {
+            vocabulary.addAll(isProduct ? builder.getProductIdsArray() : builder.getTokensArray());
+        }
+        sorted.addAll(vocabulary);
+        vocabulary = null;
+        Collections.sort(sorted);
 
-            if (!textBuffer.isEmpty()) {
-                breakText(textBuffer.toLowerCase());
+        HashMap<String, Integer> termRank = new HashMap<>();
+        for (int i = 0; i < sorted.size(); ++i) {
+            termRank.put(sorted.get(i), i);
+        }
+        HashMap<RunBuilder, int[]> builderRank = new HashMap<>();
+        for (RunBuilder builder: builders) {
+            ArrayList<String> terms = isProduct ? builder.getProductIdsArray() : builder.getTokensArray();
+            int[] rank = new int[terms.size()];
+            for (int i = 0; i < rank.length; ++i) {
+                rank[i] = termRank.get(terms.get(i));
             }
-            createTempFiles();
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
+            builderRank.put(builder, rank);
         }
+        ArrayList<int[]> runRank = new ArrayList<>();
+        for (RunBuilder owner: runOwners) {
+            runRank.add(builderRank.get(owner));
+        }
+        return runRank;
     }
 
     /**
-     * Create temp files for the sorting process
+     * Prepare the second phase of the two phase sort (the runs were created by the run builders while the input was
+     * parsed, and all of them should be flushed and written): build the sorted vocabulary, where every term is
+     * replaced by it's position in it.
      */
-    private void createTempFiles() {
-        Collections.sort(tokenLines);
-        Collections.sort(productIdLines);
-        writeMBlocks(tokenLines, SORT_TEMP_TOKEN_FILE_NAME);
-        writeMBlocks(productIdLines, SORT_TEMP_PRODUCT_FILE_NAME);
-        ++numOfTempFiles;
-        tokenLines = new ArrayList<>();
-        productIdLines = new ArrayList<>();
+    @Override
+    void prepareMerge() {
+        for (RunBuilder builder: builders) {
+            builder.clear();
+        }
+        tokensRank = rankTerms(tokensArray, false);
+        productIdsRank = rankTerms(productIdsArray, true);
+        builders = new ArrayList<>();
+        numOfTempFiles = runOwners.size();
+        runOwners = new ArrayList<>();
     }
 
     /**
-     * Writes the blocks to a temp file with number tempNumber.
-     * @param blocks The blocks to write.
-     * @param fileName The file name to be used as the temp file
+     * Merge the token runs. All merge steps but the last are done here, and the last one is streamed to the caller.
+     * @return The sorted token records, with every token replaced by it's position in the sorted vocabulary
      */
-    private void writeMBlocks(ArrayList<webdata.utils.Line> blocks, String fileName){
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(
-                new File(Paths.get(tmpDir, String.format(fileName, 0, numOfTempFiles)).toString())))){
-            // Writes the block lines to the temp file
-            for (webdata.utils.Line line:blocks) {
-                writer.write(line.toString());
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-        }
+    @Override
+    PostingSource mergeTokens() {
+        return secondPhase(tmpDir, numOfTempFiles, SORT_TEMP_TOKEN_FILE_NAME, tokensRank);
     }
 
     /**
-     * This method performs merge sort on the first column of the table in the given in file, R(A,B,C) or S(A,D,E),
-     * and writes the output to the out file.
-     * @param in The pathname of the file to read from.
-     * @param outTokens The pathname of the token file to write to.
-     * @param outProducts The pathname of the product file to write to.
+     * Merge the product id runs. All merge steps but the last are done here, and the last one is streamed to the
+     * caller.
+     * @return The sorted product id records, with every product id replaced by it's position in the sorted vocabulary
      */
-    public void sort(String in, String outTokens, String outProducts) {
-        firstPhase(in);
-        clear();
-        secondPhase(outTokens, tmpDir, numOfTempFiles, SORT_TEMP_TOKEN_FILE_NAME);
-        secondPhase(outProducts, tmpDir, numOfTempFiles, SORT_TEMP_PRODUCT_FILE_NAME);
-    }
-
-    private void copyOut(File in, String out) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(in))) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(out)))) {
-                String line = reader.readLine();
-                while (line != null) {
-                    writer.write(line);
-                    writer.newLine();
-                    line = reader.readLine();
-                }
-            }
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
-        }
+    @Override
+    PostingSource mergeProducts() {
+        return secondPhase(tmpDir, numOfTempFiles, SORT_TEMP_PRODUCT_FILE_NAME, productIdsRank);
     }
 
     /**
-     * This method performs the second phase of the two phase sort algorithm. It reads all lines from
-     * numberOfTempFiles temp files into the output file.
-     * @param out The output file name.
+     * This method performs the second phase of the two phase sort algorithm. It merges the numberOfTempFiles temp
+     * files M at a time until no more than M are left, and returns the merge of the rest.
      * @param tmpPath The path of the temp files.
      * @param numberOfTempFiles The number of temp files.
+     * @param fileName The temp files name template
+     * @param termRank Maps the term ids of every first phase file to their rank
+     * @return The merge of the last step
      */
-    private void secondPhase(String out, String tmpPath, int numberOfTempFiles, String fileName){
-        double mergeSteps = Math.ceil(Math.log(numberOfTempFiles) / Math.log(M));
-        double numOfFiles = numberOfTempFiles;
-        String outputFileName = out;
-        if (mergeSteps == 0) {
-            String in = String.format(fileName, 0, 0);
-            copyOut(Paths.get(tmpDir, in).toFile(), out);
-            try {
-                Files.deleteIfExists(Paths.get(tmpDir, in));
-            } catch (IOException e) {
-                System.err.println(e.getMessage());
-            }
-            return;
-        }
-        for ( int currStep = 1; currStep <= mergeSteps; currStep++) {
-            numOfFiles = Math.ceil(numOfFiles / M);
-
-            int start = 0;
-            int end = start + M;
-            for (int outputFileIndex = 0; outputFileIndex < numOfFiles; outputFileIndex++){
-                if ((currStep == mergeSteps) && (outputFileIndex == (numOfFiles - 1))) {
-                    outputFileName = out;
-                } else {
-                    outputFileName = Paths.get(tmpDir, String.format(fileName, currStep, outputFileIndex)).toString();
+    private PostingSource secondPhase(String tmpPath, int numberOfTempFiles, String fileName,
+                                      ArrayList<int[]> termRank){
+        int numOfFiles = numberOfTempFiles;
+        int currStep = 0;
+        try {
+            while (numOfFiles > M) {
+                int numOfOutputFiles = (numOfFiles + M - 1) / M;
+                int start = 0;
+                int end = start + M;
+                for (int outputFileIndex = 0; outputFileIndex < numOfOutputFiles; outputFileIndex++){
+                    String outputFileName =
+                            Paths.get(tmpDir, String.format(fileName, currStep + 1, outputFileIndex)).toString();
+                    mergeOnce(outputFileName, tmpPath, start, Math.min(end, numOfFiles), fileName, currStep,
+                              (currStep == 0) ? termRank : null);
+                    start = end;
+                    end += M;
                 }
-                mergeOnce(outputFileName, tmpPath, start, end , fileName, currStep - 1);
-                start = end;
-                end += M;
+                numOfFiles = numOfOutputFiles;
+                ++currStep;
             }
+            return initializeReaders(tmpPath, 0, numOfFiles, fileName, currStep, (currStep == 0) ? termRank : null);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
         }
+        return null;  // Will never happen
     }
 
     /**
-     * Merge one chunk of files, starting at 'start' and ending at 'end', to a single merged file.
+     * Merge one chunk of files, starting at 'start' and ending at 'end', to a single merged file. The index can't be
+     * built without the merged runs, so a failure to merge them ends the program.
      * @param out A single sorted file for the chunk
      * @param tmpPath the path of the temp files directory
      * @param start first file to sort
      * @param end last file to sort
      * @param fileName The final sorted file name
-     * @param prevStep
+     * @param prevStep The merge step that created the files to merge
+     * @param termRank Maps the term ids of every merged file to their rank, or null if they are already ranked
      */
-    private void mergeOnce(String out, String tmpPath, int start, int end, String fileName, int prevStep) {
-        PriorityQueue<ReaderWrapper> heapOfReaders = new PriorityQueue<>();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(out)))) {
-            this.initializeReaders(heapOfReaders, tmpPath, start, end, fileName, prevStep);
-
-            // While there are more lines left, write the next minimal line to the output
-            while (!heapOfReaders.isEmpty()) {
-                ReaderWrapper minReader = heapOfReaders.poll();
-                writer.write(minReader.getCurrLine().toString());
-                writer.newLine();
-                if (minReader.advancePtr()){
-                    heapOfReaders.add(minReader);
-                }
-            }
-            writer.flush();
+    private void mergeOnce(String out, String tmpPath, int start, int end, String fileName, int prevStep,
+                           ArrayList<int[]> termRank) {
+        try (RunFileWriter writer = new RunFileWriter(out)) {
+            writer.writeAll(this.initializeReaders(tmpPath, start, end, fileName, prevStep, termRank));
             deleteTempFiles(start, end, fileName, prevStep);
         } catch (IOException e) {
             System.err.println(e.getMessage());
+            System.exit(1);
         }
     }
 
     /**
-     * Initialize an array of readers to read from the files.
-     * @param heapOfReaders An object wrapping readers from file as a minimum heap
+     * Open readers of the files and build the tree merging them.
      * @param tmpPath the path of the temp files directory
      * @param endingFileIndex last file to read from
      * @param startingFileIndex first file to read from
      * @param fileName The final sorted file name
-     * @throws IOException
+     * @param prevStep The merge step that created the files to read
+     * @param termRank Maps the term ids of every file to their rank, or null if they are already ranked
+     * @return The tree merging the files
+     * @throws IOException If a file of the chunk is missing, or can't be opened
      */
-    private void initializeReaders(PriorityQueue<ReaderWrapper> heapOfReaders, String tmpPath,
-                                   int startingFileIndex, int endingFileIndex, String fileName, int prevStep)
+    private LoserTree initializeReaders(String tmpPath, int startingFileIndex, int endingFileIndex, String fileName,
+                                        int prevStep, ArrayList<int[]> termRank)
             throws IOException {
+        ArrayList<Path> filePaths = new ArrayList<>();
         for (int i = startingFileIndex; i < endingFileIndex; i++) {
             Path filePath = Paths.get(tmpPath, String.format(fileName, prevStep, i));
-            if (Files.exists(filePath)){
-                BufferedReader br = new BufferedReader(new FileReader(filePath.toFile()));
-                String line = br.readLine();
-                if (line != null){
-                    heapOfReaders.add(new ReaderWrapper(br, new Line(line)));
-                }
-            }else{
-                break;
+            if (!Files.exists(filePath)) {
+                throw new FileNotFoundException("Missing run file " + filePath);
             }
+            filePaths.add(filePath);
+        }
+
+        /* Give every file as large a read ahead buffer as the merge memory allows */
+        int bufferSize = (int) Math.max(MIN_MERGE_BUFFER_SIZE,
+                                        Math.min(MAX_MERGE_BUFFER_SIZE, MERGE_MEMORY / Math.max(1, filePaths.size())));
+        RunFileReader[] readers = new RunFileReader[filePaths.size()];
+        int[][] termMappings = new int[filePaths.size()][];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new RunFileReader(filePaths.get(i).toString(), bufferSize);
+            termMappings[i] = (termRank == null) ? null : termRank.get(startingFileIndex + i);
         }
+        return new LoserTree(readers, termMappings);
     }
 
     /**
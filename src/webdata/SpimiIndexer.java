@@ -0,0 +1,322 @@
+package webdata;
+
+import webdata.utils.PartialIndexReader;
+import webdata.utils.PartialIndexWriter;
+import webdata.utils.PostingSource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Builds the index with single pass in-memory inversion: every inverter writes it's blocks as partial indexes
+ * holding their own terms, and the partial indexes are merged term by term. There is no global term id mapping and
+ * no separate pass over the vocabulary: a term gets it's id when it is merged, by it's order.
+ * The blocks of an inverter hold the reviews of the batches it was given, which interleave with the ones of other
+ * inverters, so the postings of a term are merged by review id. Like the runs of the sort engine, the blocks are
+ * merged M at a time until no more than M are left, and the last step is merged as the index is built.
+ */
+class SpimiIndexer extends InversionEngine {
+
+    /* The partial index file name templates, by the merge step that created the file and it's index in the step */
+    private static final String BLOCK_TOKEN_FILE_NAME = "s_t_%d_%d.blk";
+    private static final String BLOCK_PRODUCT_FILE_NAME = "s_p_%d_%d.blk";
+    private static final int M = 1000;
+
+    /* The read ahead buffers of the partial indexes of a merge */
+    private static final long MERGE_MEMORY = 1 << 28;
+    private static final int MIN_MERGE_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_MERGE_BUFFER_SIZE = 1 << 22;
+
+    /* The sorted terms, which grow as the partial indexes are merged */
+    private ArrayList<String> tokensArray = new ArrayList<>();
+    private ArrayList<String> productIdsArray = new ArrayList<>();
+
+    private String tmpDir;
+    private int numOfBlocks = 0;
+    private long blockBytes = 0;
+
+    /**
+     * Constructor
+     * @param tmpDir Directory of temp files
+     */
+    SpimiIndexer(String tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    @Override
+    Inverter newInverter(Executor blockWriter, long blockBudget) {
+        return new SpimiInverter(this, blockWriter, blockBudget);
+    }
+
+    /**
+     * Reserve the number of a new block.
+     * @param bytes The size in bytes of the data of the block
+     * @return The number of the block
+     */
+    synchronized int newBlock(long bytes) {
+        blockBytes += bytes;
+        return numOfBlocks++;
+    }
+
+    /**
+     * Return the path of the token partial index of the given block
+     */
+    String getTokenBlockPath(int block) {
+        return getPath(BLOCK_TOKEN_FILE_NAME, 0, block);
+    }
+
+    /**
+     * Return the path of the product id partial index of the given block
+     */
+    String getProductBlockPath(int block) {
+        return getPath(BLOCK_PRODUCT_FILE_NAME, 0, block);
+    }
+
+    /**
+     * Return the path of a partial index.
+     * @param fileName The partial index file name template
+     * @param step The merge step that created the partial index (0 for blocks)
+     * @param index The index of the partial index in the step
+     */
+    private String getPath(String fileName, int step, int index) {
+        return Paths.get(tmpDir, String.format(fileName, step, index)).toString();
+    }
+
+    /**
+     * The blocks are sorted when they are written, so there is nothing to prepare.
+     */
+    @Override
+    void prepareMerge() {}
+
+    @Override
+    PostingSource mergeTokens() {
+        return merge(BLOCK_TOKEN_FILE_NAME, tokensArray);
+    }
+
+    @Override
+    PostingSource mergeProducts() {
+        return merge(BLOCK_PRODUCT_FILE_NAME, productIdsArray);
+    }
+
+    @Override
+    ArrayList<String> getTokensArray() { return tokensArray; }
+
+    @Override
+    ArrayList<String> getProductIdsArray() { return productIdsArray; }
+
+    @Override
+    int getNumOfRuns() { return numOfBlocks; }
+
+    @Override
+    long getRunBytes() { return blockBytes; }
+
+    /**
+     * Merge the partial indexes of the blocks M at a time until no more than M are left, and return the merge of
+     * the rest.
+     * @param fileName The partial index file name template
+     * @param terms Populated with the merged terms
+     * @return The merge of the last step
+     */
+    private PostingSource merge(String fileName, ArrayList<String> terms) {
+        int numOfFiles = numOfBlocks;
+        int currStep = 0;
+        try {
+            while (numOfFiles > M) {
+                int numOfOutputFiles = (numOfFiles + M - 1) / M;
+                for (int outputFileIndex = 0; outputFileIndex < numOfOutputFiles; outputFileIndex++) {
+                    int start = outputFileIndex * M;
+                    int end = Math.min(start + M, numOfFiles);
+                    mergeOnce(getPath(fileName, currStep + 1, outputFileIndex), start, end, fileName, currStep);
+                }
+                numOfFiles = numOfOutputFiles;
+                ++currStep;
+            }
+            return initializeReaders(0, numOfFiles, fileName, currStep, terms);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        return null;  // Will never happen
+    }
+
+    /**
+     * Merge a chunk of partial indexes to a single partial index, and delete them.
+     * @param out The path of the merged partial index
+     * @param start The index of the first partial index to merge
+     * @param end The index after the last partial index to merge
+     * @param fileName The partial index file name template
+     * @param prevStep The merge step that created the partial indexes to merge
+     * @throws IOException
+     */
+    private void mergeOnce(String out, int start, int end, String fileName, int prevStep) throws IOException {
+        try (BlockMerger merger = initializeReaders(start, end, fileName, prevStep, null);
+             PartialIndexWriter writer = new PartialIndexWriter(out)) {
+            while (merger.nextTerm()) {
+                while (merger.nextPosting()) {
+                    writer.addPosting(merger.getReviewId(), merger.getFrequency());
+                }
+                writer.writeTerm(merger.getTermBytes());
+            }
+        }
+        for (int i = start; i < end; ++i) {
+            Files.deleteIfExists(Paths.get(getPath(fileName, prevStep, i)));
+        }
+    }
+
+    /**
+     * Open readers of a chunk of partial indexes, and build the merger of them.
+     * @param start The index of the first partial index to read
+     * @param end The index after the last partial index to read
+     * @param fileName The partial index file name template
+     * @param prevStep The merge step that created the partial indexes to read
+     * @param terms Populated with the merged terms, or null if they aren't needed
+     * @return The merger of the partial indexes
+     * @throws IOException If a partial index of the chunk is missing, or can't be opened
+     */
+    private BlockMerger initializeReaders(int start, int end, String fileName, int prevStep,
+                                          ArrayList<String> terms) throws IOException {
+        ArrayList<Path> filePaths = new ArrayList<>();
+        for (int i = start; i < end; ++i) {
+            Path path = Paths.get(getPath(fileName, prevStep, i));
+            if (!Files.exists(path)) {
+                throw new FileNotFoundException("Missing partial index " + path);
+            }
+            filePaths.add(path);
+        }
+
+        /* Give every partial index as large a read ahead buffer as the merge memory allows */
+        int bufferSize = (int) Math.max(MIN_MERGE_BUFFER_SIZE,
+                                        Math.min(MAX_MERGE_BUFFER_SIZE, MERGE_MEMORY / Math.max(1, filePaths.size())));
+        ArrayList<PartialIndexReader> readers = new ArrayList<>();
+        for (Path path: filePaths) {
+            readers.add(new PartialIndexReader(path.toString(), bufferSize));
+        }
+        return new BlockMerger(readers, terms);
+    }
+
+    /**
+     * Merges partial indexes term by term. The postings of a term are merged by review id from the partial indexes
+     * that have it, and only the current posting of every partial index is decoded.
+     */
+    private static class BlockMerger implements PostingSource {
+
+        private final ArrayList<PartialIndexReader> readers;
+        /* The readers by their current term, and then by their order */
+        private final PriorityQueue<Integer> heapOfReaders;
+        /* The readers of the current term that have postings left, by the review id of their current posting */
+        private final PriorityQueue<Integer> heapOfPostings;
+        private final ArrayList<String> terms;
+
+        /* The readers of the current term, and the one whose posting is returned (-1 if none is) */
+        private final ArrayList<Integer> termReaders = new ArrayList<>();
+        private int current = -1;
+        private int term = -1;
+
+        /**
+         * Constructor
+         * @param readers The readers of the partial indexes, not advanced yet
+         * @param terms Populated with the merged terms, where the id of a term is it's position, or null if
+         *              they aren't needed
+         * @throws IOException
+         */
+        BlockMerger(ArrayList<PartialIndexReader> readers, ArrayList<String> terms) throws IOException {
+            this.readers = readers;
+            this.terms = terms;
+            int capacity = Math.max(1, readers.size());
+            Comparator<Integer> byTerm = (r1, r2) -> readers.get(r1).compareTerm(readers.get(r2));
+            heapOfReaders = new PriorityQueue<>(capacity, byTerm.thenComparing(r -> r));
+            heapOfPostings = new PriorityQueue<>(capacity, Comparator.comparingInt(r -> readers.get(r).getReviewId()));
+            for (int r = 0; r < readers.size(); ++r) {
+                if (readers.get(r).nextTerm()) {
+                    heapOfReaders.add(r);
+                }
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (!nextPosting()) {
+                if (!nextTerm()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Move to the next term, and advance the readers of the previous term past it.
+         * @return True if there is a term, False if all partial indexes were merged
+         * @throws IOException
+         */
+        boolean nextTerm() throws IOException {
+            for (int r: termReaders) {
+                if (readers.get(r).nextTerm()) {
+                    heapOfReaders.add(r);
+                }
+            }
+            termReaders.clear();
+            heapOfPostings.clear();
+            current = -1;
+            if (heapOfReaders.isEmpty()) {
+                return false;
+            }
+            termReaders.add(heapOfReaders.poll());
+            while (!heapOfReaders.isEmpty() &&
+                   readers.get(heapOfReaders.peek()).compareTerm(readers.get(termReaders.get(0))) == 0) {
+                termReaders.add(heapOfReaders.poll());
+            }
+            for (int r: termReaders) {
+                if (readers.get(r).nextPosting()) {
+                    heapOfPostings.add(r);
+                }
+            }
+            ++term;
+            if (terms != null) {
+                terms.add(readers.get(termReaders.get(0)).getTerm());
+            }
+            return true;
+        }
+
+        /**
+         * Move to the next posting of the current term, by review id.
+         * @return True if there is a posting, False if all postings of the term were returned
+         */
+        boolean nextPosting() {
+            if (current >= 0 && readers.get(current).nextPosting()) {
+                heapOfPostings.add(current);
+            }
+            current = heapOfPostings.isEmpty() ? -1 : heapOfPostings.poll();
+            return current >= 0;
+        }
+
+        /**
+         * Get a copy of the bytes of the current term
+         */
+        byte[] getTermBytes() {
+            return readers.get(termReaders.get(0)).getTermBytes();
+        }
+
+        @Override
+        public int getTerm() { return term; }
+
+        @Override
+        public int getReviewId() { return readers.get(current).getReviewId(); }
+
+        @Override
+        public int getFrequency() { return readers.get(current).getFrequency(); }
+
+        @Override
+        public void close() throws IOException {
+            for (PartialIndexReader reader: readers) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package webdata;
+
+import webdata.utils.PartialIndexWriter;
+import webdata.utils.TermTable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Inverts a part of the input in memory, single pass style: every term of a block gets a growing buffer of encoded
+ * postings, which is appended to as the reviews are added. Once the block is full it's terms are sorted and it is
+ * written as a partial index, which holds the terms and their postings and needs no term ids.
+ */
+class SpimiInverter extends Inverter {
+
+    private static final int INITIAL_NUM_OF_TERMS = 1 << 10;
+    private static final int INITIAL_POSTINGS_SIZE = 16;
+    private static final int MAX_POSTING_SIZE = 10;  // Two varints of 5 bytes
+    /* Estimated size in bytes of the objects and array slots of a term, besides it's bytes and postings */
+    private static final int TERM_OVERHEAD = 64;
+    /* Estimated size in bytes of an entry of the product id map: the entry, the boxed id and the id String */
+    private static final int MAP_ENTRY_SIZE = 96;
+
+    /* The indexer that will merge the blocks, and the writer of the blocks */
+    private final SpimiIndexer indexer;
+    private final Executor blockWriter;
+    /* A block is written once it's data and the lookup tables of it's terms take this many bytes. The tables are
+       reused by all blocks, and a quarter of the budget is always left to the data, so tables that outgrow the
+       budget don't shrink the blocks to a few reviews each */
+    private final long blockBudget;
+
+    /* The id of the current review */
+    private int reviewId;
+    private int numOfReviewsInBlock = 0;
+
+    /* The token ids of the current review */
+    private int[] reviewTokens = new int[1024];
+    private int numOfReviewTokens = 0;
+
+    /* The current block, and the lookup tables of it's terms (cleared and reused by the next block) */
+    private Block tokens = new Block();
+    private Block productIds = new Block();
+    private final TermTable tokensTable = new TermTable();
+    private final HashMap<String, Integer> productIdMap = new HashMap<>();
+
+    /**
+     * The terms of a block and their postings, by the ids the block gives the terms by order of appearance.
+     */
+    private static final class Block {
+        private byte[][] terms = new byte[INITIAL_NUM_OF_TERMS][];
+        private byte[][] postings = new byte[INITIAL_NUM_OF_TERMS][];
+        private int[] postingsLength = new int[INITIAL_NUM_OF_TERMS];
+        private int[] numOfPostings = new int[INITIAL_NUM_OF_TERMS];
+        private int[] lastReviewId = new int[INITIAL_NUM_OF_TERMS];
+        private int size = 0;
+        private long bytes = 0;
+
+        /**
+         * Add a new term to the block.
+         * @param term The term
+         * @return The id of the term in the block
+         */
+        int addTerm(byte[] term) {
+            if (size == terms.length) {
+                int capacity = size * 2;
+                terms = Arrays.copyOf(terms, capacity);
+                postings = Arrays.copyOf(postings, capacity);
+                postingsLength = Arrays.copyOf(postingsLength, capacity);
+                numOfPostings = Arrays.copyOf(numOfPostings, capacity);
+                lastReviewId = Arrays.copyOf(lastReviewId, capacity);
+            }
+            terms[size] = term;
+            postings[size] = new byte[INITIAL_POSTINGS_SIZE];
+            bytes += term.length + INITIAL_POSTINGS_SIZE + TERM_OVERHEAD;
+            return size++;
+        }
+
+        /**
+         * Append a posting to the postings of a term: the gap from the previous review of the term and the frequency.
+         * @param term The id of the term in the block
+         * @param reviewId The review id, larger than the previous one of the term
+         * @param freq The frequency of the term in the review
+         */
+        void addPosting(int term, int reviewId, int freq) {
+            byte[] buf = postings[term];
+            int len = postingsLength[term];
+            if (len + MAX_POSTING_SIZE > buf.length) {
+                buf = postings[term] = Arrays.copyOf(buf, buf.length * 2);
+                bytes += buf.length / 2;
+            }
+            len = putVarint(buf, len, reviewId - lastReviewId[term]);
+            postingsLength[term] = putVarint(buf, len, freq);
+            lastReviewId[term] = reviewId;
+            ++numOfPostings[term];
+        }
+
+        /**
+         * Write the block as a partial index, by the order of the Strings of the terms. The index can't be built
+         * without the block, so a failure to write it ends the program.
+         * @param path The path of the partial index
+         */
+        void write(String path) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (t1, t2) -> Arrays.compareUnsigned(terms[t1], terms[t2]));
+            try (PartialIndexWriter writer = new PartialIndexWriter(path)) {
+                for (int term: order) {
+                    writer.write(terms[term], postings[term], postingsLength[term], numOfPostings[term]);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param indexer The indexer that will merge the blocks
+     * @param blockWriter Executes the writing of the blocks
+     * @param blockBudget The size in bytes of the data of a block
+     */
+    SpimiInverter(SpimiIndexer indexer, Executor blockWriter, long blockBudget) {
+        this.indexer = indexer;
+        this.blockWriter = blockWriter;
+        this.blockBudget = blockBudget;
+    }
+
+    /**
+     * Put a non negative int as a varint (7 bits per byte, the high bit marks that more bytes follow).
+     * @param buf The array to put in
+     * @param pos The position to put at
+     * @param val The value
+     * @return The position after the varint
+     */
+    private static int putVarint(byte[] buf, int pos, int val) {
+        while ((val & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        buf[pos++] = (byte) val;
+        return pos;
+    }
+
+    @Override
+    void setNextReviewId(int firstReviewId) {
+        this.reviewId = firstReviewId - 1;
+    }
+
+    @Override
+    void addProductId(String productId) {
+        ++reviewId;
+        long bytes = tokens.bytes + productIds.bytes + (long) productIdMap.size() * MAP_ENTRY_SIZE;
+        if (numOfReviewsInBlock > 0 && bytes >= Math.max(blockBudget - tokensTable.getBytes(), blockBudget / 4)) {
+            flush();
+        }
+        ++numOfReviewsInBlock;
+        Integer id = productIdMap.get(productId);
+        if (id == null) {
+            id = productIds.addTerm(productId.getBytes(StandardCharsets.ISO_8859_1));
+            productIdMap.put(productId, id);
+        }
+        productIds.addPosting(id, reviewId, 1);
+    }
+
+    @Override
+    void addToken(byte[] data, int from, int length) {
+        int id = tokensTable.getOrAdd(data, from, length);
+        if (id == tokens.size) {
+            tokens.addTerm(Arrays.copyOfRange(data, from, from + length));
+        }
+        if (numOfReviewTokens == reviewTokens.length) {
+            reviewTokens = Arrays.copyOf(reviewTokens, reviewTokens.length * 2);
+        }
+        reviewTokens[numOfReviewTokens++] = id;
+    }
+
+    /**
+     * End the current review, adding a posting for every distinct token in it with it's frequency.
+     */
+    @Override
+    void endReview() {
+        Arrays.sort(reviewTokens, 0, numOfReviewTokens);
+        int i = 0;
+        while (i < numOfReviewTokens) {
+            int id = reviewTokens[i];
+            int freq = 0;
+            while (i < numOfReviewTokens && reviewTokens[i] == id) {
+                ++freq;
+                ++i;
+            }
+            tokens.addPosting(id, reviewId, freq);
+        }
+        numOfReviewTokens = 0;
+    }
+
+    /**
+     * Hand the current block to the block writer, and start a new one.
+     */
+    @Override
+    void flush() {
+        if (numOfReviewsInBlock == 0) {
+            return;
+        }
+        int block = indexer.newBlock(tokens.bytes + productIds.bytes);
+        final Block blockTokens = tokens;
+        final Block blockProductIds = productIds;
+        blockWriter.execute(() -> {
+            blockTokens.write(indexer.getTokenBlockPath(block));
+            blockProductIds.write(indexer.getProductBlockPath(block));
+        });
+        numOfReviewsInBlock = 0;
+        tokens = new Block();
+        productIds = new Block();
+        tokensTable.clear();
+        productIdMap.clear();
+    }
+}
@@ -0,0 +1,63 @@
+package webdata;
+
+/**
+ * A token resolved in the index by IndexReader.lookupToken: it's statistics and the position of it's posting list,
+ * so they can be queried again without searching the dictionary.
+ */
+public final class TermHandle {
+    private final String term;
+    private final int ordinal;
+    private final int documentFrequency;
+    private final int collectionFrequency;
+    private final long postingPtr;
+    private final long nextPostingPtr;
+
+    /**
+     * Constructor
+     * @param term The term (lowercased)
+     * @param ordinal The position of the term in the dictionary
+     * @param documentFrequency The number of reviews containing the term
+     * @param collectionFrequency The number of times the term appears in the reviews
+     * @param postingPtr The position of the posting list of the term
+     * @param nextPostingPtr The position of the posting list after it, or -1 if it is the last one
+     */
+    TermHandle(String term, int ordinal, int documentFrequency, int collectionFrequency, long postingPtr,
+               long nextPostingPtr) {
+        this.term = term;
+        this.ordinal = ordinal;
+        this.documentFrequency = documentFrequency;
+        this.collectionFrequency = collectionFrequency;
+        this.postingPtr = postingPtr;
+        this.nextPostingPtr = nextPostingPtr;
+    }
+
+    /**
+     * Return the term (lowercased)
+     */
+    public String getTerm() { return term; }
+
+    /**
+     * Return the position of the term in the dictionary
+     */
+    public int getOrdinal() { return ordinal; }
+
+    /**
+     * Return the number of reviews containing the term
+     */
+    public int getDocumentFrequency() { return documentFrequency; }
+
+    /**
+     * Return the number of times the term appears in the reviews
+     */
+    public int getCollectionFrequency() { return collectionFrequency; }
+
+    /**
+     * Return the position of the posting list of the term
+     */
+    public long getPostingPtr() { return postingPtr; }
+
+    /**
+     * Return the position of the posting list after the one of the term, or -1 if it is the last one
+     */
+    long getNextPostingPtr() { return nextPostingPtr; }
+}
@@ -0,0 +1,64 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes blocks of values bit packed at a fixed width (big endian bit order, padded to a byte), and turns gaps back
+ * to values. BEST is the vector (SIMD) implementation when it is available, and the scalar one otherwise. The vector
+ * implementation is in the optional source root src-vector, as it needs the jdk.incubator.vector module (JDK 16 and
+ * later) to compile, so this source root builds on JDK 11 without it.
+ */
+public interface BitUnpacker {
+
+    /* Decodes one value at a time */
+    BitUnpacker SCALAR = new ScalarBitUnpacker();
+
+    /* The fastest implementation available */
+    BitUnpacker BEST = load();
+
+    /**
+     * Load the vector implementation by reflection, so this class doesn't depend on it or on the incubator module.
+     * @return The vector implementation, or SCALAR if it wasn't compiled, the module isn't available or there are no
+     *         vector registers
+     */
+    private static BitUnpacker load() {
+        if (!Boolean.parseBoolean(System.getProperty("webdata.vector", "true"))) {
+            return SCALAR;
+        }
+        BitUnpacker unpacker = null;
+        try {
+            unpacker = (BitUnpacker) Class.forName("webdata.utils.VectorBitUnpacker").getDeclaredMethod("create")
+                                          .invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled, or the module isn't available
+        }
+        return (unpacker == null) ? SCALAR : unpacker;
+    }
+
+    /**
+     * Return the name of the implementation
+     */
+    String getName();
+
+    /**
+     * Decode a packed block.
+     * @param in The buffer holding the block
+     * @param pos The position of the block in the buffer
+     * @param width The number of bits of every value (0 to 32)
+     * @param out The array to decode to
+     * @param from The index in the array of the first value
+     * @param n The number of values
+     * @return The position in the buffer after the block
+     */
+    int unpack(ByteBuffer in, int pos, int width, int[] out, int from, int n);
+
+    /**
+     * Replace gaps by their prefix sums.
+     * @param values Array holding the gaps
+     * @param from The index in the array of the first gap
+     * @param n The number of gaps
+     * @param prevVal The value before the first gap
+     * @return The last value
+     */
+    int prefixSum(int[] values, int from, int n, int prevVal);
+}
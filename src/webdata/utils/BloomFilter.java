@@ -0,0 +1,144 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A Bloom filter of a set of Strings: tells in a few probes that a key is not in the set, and wrongly says that a
+ * key is in the set at about the false positive rate it was built for.
+ * Every key sets numOfHashes bits of the bit array, at positions derived from two hashes of it (h1 + i * h2).
+ * The filter is kept in a single buffer with the same layout as it's file (big endian): a header of HEADER_SIZE
+ * bytes (magic, version, number of keys, number of hashes, number of words) followed by the bit array (long[]).
+ */
+public class BloomFilter {
+
+    private static final int MAGIC = 0x57424C4D;  // "WBLM"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final long SEED1 = 0x8EBC6AF09C88C6E3L;
+    private static final long SEED2 = 0x589965CC75374CC3L;
+    private static final int MAX_HASHES = 16;
+
+    private final ByteBuffer data;
+    private final int numOfKeys;
+    private final int numOfHashes;
+    private final long numOfBits;
+
+    /**
+     * Constructor
+     * @param data The filter
+     * @throws IOException If the filter is not in a supported format
+     */
+    private BloomFilter(ByteBuffer data) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a Bloom filter file");
+        }
+        if (data.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported Bloom filter version " + data.getInt(Integer.BYTES));
+        }
+        this.data = data;
+        numOfKeys = data.getInt(2 * Integer.BYTES);
+        numOfHashes = data.getInt(3 * Integer.BYTES);
+        numOfBits = (long) data.getInt(4 * Integer.BYTES) * Long.SIZE;
+    }
+
+    /**
+     * Build the filter of the given keys. The number of bits is -n*ln(p)/ln(2)^2 and the number of hashes is
+     * ln(2) bits per key, which minimize the false positive rate p for n keys.
+     * @param keys The keys
+     * @param falsePositiveRate The wanted rate of keys not in the set that the filter says are in it (0 to 1)
+     * @return The filter
+     */
+    public static BloomFilter build(ArrayList<String> keys, double falsePositiveRate) {
+        int n = Math.max(1, keys.size());
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        double bitsPerKey = -Math.log(p) / (Math.log(2) * Math.log(2));
+        int words = (int) Math.min(Integer.MAX_VALUE / Long.BYTES - HEADER_SIZE,
+                                   (long) Math.ceil(bitsPerKey * n / Long.SIZE));
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + words * Long.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(keys.size()).putInt(hashes).putInt(words);
+        long bits = (long) words * Long.SIZE;
+        for (String key: keys) {
+            long h1 = Utils.hash(key, SEED1);
+            long h2 = Utils.mix(h1 ^ SEED2) | 1;
+            for (int i = 0; i < hashes; ++i) {
+                long pos = Long.remainderUnsigned(h1 + i * h2, bits);
+                int offset = HEADER_SIZE + (int) (pos >>> 6) * Long.BYTES;
+                buffer.putLong(offset, buffer.getLong(offset) | (1L << pos));
+            }
+        }
+        try {
+            return new BloomFilter(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // Will never happen, the header was just written
+        }
+    }
+
+    /**
+     * Open a filter file by mapping it to memory (read only).
+     * @param file The filter file
+     * @return The filter
+     * @throws IOException
+     */
+    public static BloomFilter open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return new BloomFilter(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Save the filter to a file.
+     * @param file The filter file
+     * @throws IOException
+     */
+    public void save(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Return the number of keys
+     */
+    public int size() { return numOfKeys; }
+
+    /**
+     * Return the number of bytes the filter takes
+     */
+    public long getSizeInBytes() { return data.capacity(); }
+
+    /**
+     * Return the expected false positive rate of the filter, (1 - e^(-k*n/m))^k for n keys, m bits and k hashes
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) numOfHashes * numOfKeys / numOfBits), numOfHashes);
+    }
+
+    /**
+     * Check if a key may be in the set.
+     * @param key The key
+     * @return False if the key is not in the set, True if it is or (rarely) if it is not
+     */
+    public boolean mightContain(String key) {
+        long h1 = Utils.hash(key, SEED1);
+        long h2 = Utils.mix(h1 ^ SEED2) | 1;
+        for (int i = 0; i < numOfHashes; ++i) {
+            long pos = Long.remainderUnsigned(h1 + i * h2, numOfBits);
+            if ((data.getLong(HEADER_SIZE + (int) (pos >>> 6) * Long.BYTES) & (1L << pos)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
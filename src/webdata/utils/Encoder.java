@@ -1,13 +1,34 @@
 package webdata.utils;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
  * A static class to encode and decode
+ * The format (varint group encoding) is the number of values (4 bytes), followed by groups of up to 4 values: a
+ * control byte holding the number of bytes of every value of the group minus 1 (2 bits each, the first value in the
+ * highest bits used), and the values (big endian, with a sign bit, so 1 byte up to 127, 2 bytes up to 32767 and so
+ * on).
+ * The primitive methods (on int[] and ByteBuffer) write and read the same format as the ones on boxed values,
+ * without allocating, and decode a group by a table of the lengths given by every control byte.
  */
 public final class Encoder {
 
+    /* The lengths of the 4 values of a group by it's control byte, and the total length of the values */
+    private static final byte[] GROUP_LENGTHS = new byte[256 * 4];
+    private static final byte[] GROUP_SIZES = new byte[256];
+
+    static {
+        for (int control = 0; control < 256; ++control) {
+            for (int j = 0; j < 4; ++j) {
+                int length = ((control >>> (2 * (3 - j))) & 3) + 1;
+                GROUP_LENGTHS[control * 4 + j] = (byte) length;
+                GROUP_SIZES[control] += length;
+            }
+        }
+    }
+
     /**
      * Empty and private constructor to make this class static.
      */
@@ -101,4 +122,144 @@ public final class Encoder {
         }
         return res;
     }
-}
\ No newline at end of file
+
+    /**
+     * Return the maximal number of bytes the given number of values are encoded to.
+     * @param count The number of values
+     * @return The number of bytes
+     */
+    public static int maxEncodedLength(int count) {
+        return Integer.BYTES + (count + 3) / 4 + count * Integer.BYTES;
+    }
+
+    /**
+     * Encode values to a buffer using varint group encoding, in the format of encode(ArrayList, boolean).
+     * @param values Array holding the values (non negative, and increasing if codeAsGap is true)
+     * @param count The number of values
+     * @param codeAsGap Indicate whether to encode the gaps between the values
+     * @param out The buffer to write to, from it's position, with room for maxEncodedLength(count) bytes
+     */
+    public static void encode(int[] values, int count, boolean codeAsGap, ByteBuffer out) {
+        out.putInt(count);
+        int prevVal = 0;
+        for (int group = 0; group < count; group += 4) {
+            int end = Math.min(count, group + 4);
+            int controlPos = out.position();
+            out.put((byte) 0);
+            int controlByte = 0;
+            for (int i = group; i < end; ++i) {
+                int val = values[i] - prevVal;
+                int length = byteLength(val);
+                controlByte = (controlByte << 2) + (length - 1);
+                putValue(out, val, length);
+                prevVal = (codeAsGap) ? values[i] : 0;
+            }
+            out.put(controlPos, (byte) controlByte);
+        }
+    }
+
+    /**
+     * Return the number of values encoded at the position of the buffer, so the array to decode them to can be
+     * allocated (or reused).
+     * @param in The buffer
+     * @return The number of values
+     */
+    public static int decodedLength(ByteBuffer in) {
+        return in.getInt(in.position());
+    }
+
+    /**
+     * Decode values encoded using varint group encoding from a buffer, and advance it past them.
+     * @param in The buffer to read from, from it's position
+     * @param codeAsGap Indicate whether the gaps between the values were encoded
+     * @param out The array to decode to, with room for decodedLength(in) values
+     * @return The number of values
+     */
+    public static int decode(ByteBuffer in, boolean codeAsGap, int[] out) {
+        int count = in.getInt();
+        int prevVal = 0;
+        int pos = in.position();
+        for (int group = 0; group < count; group += 4) {
+            int numOfValues = Math.min(4, count - group);
+            int control = (in.get(pos++) & 0xFF) * 4 + (4 - numOfValues);  // A partial group uses the lowest fields
+            for (int j = 0; j < numOfValues; ++j) {
+                int length = GROUP_LENGTHS[control + j];
+                int val = getValue(in, pos, length) + prevVal;
+                out[group + j] = val;
+                prevVal = (codeAsGap) ? val : 0;
+                pos += length;
+            }
+        }
+        in.position(pos);
+        return count;
+    }
+
+    /**
+     * Skip the values encoded at the position of a buffer, reading only the control bytes.
+     * @param in The buffer, advanced past the values
+     */
+    public static void skip(ByteBuffer in) {
+        int count = in.getInt();
+        int pos = in.position();
+        for (int group = 0; group < count; group += 4) {
+            int numOfValues = Math.min(4, count - group);
+            int control = in.get(pos++) & 0xFF;
+            pos += (numOfValues == 4) ? GROUP_SIZES[control] : partialGroupSize(control, numOfValues);
+        }
+        in.position(pos);
+    }
+
+    /**
+     * Return the total length of the values of a partial group (which are in the lowest fields of the control byte)
+     */
+    private static int partialGroupSize(int control, int numOfValues) {
+        int size = 0;
+        for (int j = 4 - numOfValues; j < 4; ++j) {
+            size += GROUP_LENGTHS[control * 4 + j];
+        }
+        return size;
+    }
+
+    /**
+     * Return the number of bytes a value is written in: the bytes of it and a sign bit, as BigInteger writes it.
+     */
+    private static int byteLength(int val) {
+        return Math.min(Integer.BYTES, (Integer.SIZE - Integer.numberOfLeadingZeros(val)) / Byte.SIZE + 1);
+    }
+
+    /**
+     * Write a value in the given number of bytes (big endian).
+     */
+    private static void putValue(ByteBuffer out, int val, int length) {
+        switch (length) {
+            case 1:
+                out.put((byte) val);
+                break;
+            case 2:
+                out.putShort((short) val);
+                break;
+            case 3:
+                out.put((byte) (val >>> 16));
+                out.putShort((short) val);
+                break;
+            default:
+                out.putInt(val);
+        }
+    }
+
+    /**
+     * Read a value of the given number of bytes (big endian) at the given position of a buffer.
+     */
+    private static int getValue(ByteBuffer in, int pos, int length) {
+        switch (length) {
+            case 1:
+                return in.get(pos) & 0xFF;
+            case 2:
+                return in.getShort(pos) & 0xFFFF;
+            case 3:
+                return ((in.get(pos) & 0xFF) << 16) | (in.getShort(pos + 1) & 0xFFFF);
+            default:
+                return in.getInt(pos);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The posting codec of the varint group encoding of Encoder.
+ */
+class GroupVarintCodec implements PostingCodec {
+
+    @Override
+    public int getId() { return 0; }
+
+    @Override
+    public String getName() { return "group varint"; }
+
+    @Override
+    public int maxEncodedLength(int count) {
+        return Encoder.maxEncodedLength(count);
+    }
+
+    @Override
+    public void encode(int[] values, int count, boolean codeAsGap, ByteBuffer out) {
+        Encoder.encode(values, count, codeAsGap, out);
+    }
+
+    @Override
+    public int decode(ByteBuffer in, boolean codeAsGap, int[] out) {
+        return Encoder.decode(in, codeAsGap, out);
+    }
+}
@@ -0,0 +1,95 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A static class to split a file of reviews to chunks that start at the beginning of a review, so every chunk can
+ * be parsed on it's own, and to map these chunks to memory.
+ */
+public final class InputChunks {
+
+    private static final byte[] RECORD_START = "product/productId: ".getBytes(StandardCharsets.US_ASCII);
+
+    /* A single mapping is limited to the size of an int, leave room for the review the chunk ends with */
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE / 2;
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    /**
+     * Empty and private constructor to make this class static.
+     */
+    private InputChunks() {}
+
+    /**
+     * Find the end of the chunk that starts at the given position: the first review that starts at least
+     * chunkSize bytes after it (but no more than the maximal size of a mapping).
+     * @param channel The file
+     * @param from The start of the chunk
+     * @param chunkSize The wanted size of the chunk
+     * @return The end of the chunk (exclusive), which is the size of the file for the last chunk
+     * @throws IOException
+     */
+    public static long nextBound(FileChannel channel, long from, long chunkSize) throws IOException {
+        long size = channel.size();
+        long pos = from + Math.min(chunkSize, MAX_CHUNK_SIZE);
+        return (pos >= size) ? size : findRecordStart(channel, pos, size);
+    }
+
+    /**
+     * Map the given range of the file to memory (read only).
+     * @param channel The file
+     * @param from Start of the range
+     * @param to End of the range (exclusive)
+     * @return The mapped buffer
+     * @throws IOException
+     */
+    public static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Find the first line starting at pos or after it that starts a review.
+     * @param channel The file
+     * @param pos Position to start looking from
+     * @param size The size of the file
+     * @return Position of the line, or the size of the file if there is none
+     * @throws IOException
+     */
+    private static long findRecordStart(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        long p = pos - 1;  // The line may start exactly at pos
+        while (p < size) {
+            window.clear();
+            int read = channel.read(window, p);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; ++i) {
+                if (window.get(i) == '\n' && isRecordStart(window, i + 1, read)) {
+                    return p + i + 1;
+                }
+            }
+            /* Overlap the windows, so a line start cut at the end of this window is found in the next one */
+            p += Math.max(1, read - RECORD_START.length);
+        }
+        return size;
+    }
+
+    /**
+     * Check if the review start prefix is written at the given position of the window.
+     */
+    private static boolean isRecordStart(ByteBuffer window, int from, int limit) {
+        if (from + RECORD_START.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < RECORD_START.length; ++i) {
+            if (window.get(from + i) != RECORD_START[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package webdata.utils;
+
+/**
+ * Accepts the strings within a maximal edit distance (insertions, deletions and substitutions) of a query.
+ * The automaton is simulated by it's states: the state after reading some input is the row of edit distances
+ * between that input and every prefix of the query, capped at the maximal distance plus one. A state from which no
+ * string can be accepted is dead, so walking a sorted list of strings can skip all strings that share a prefix whose
+ * state is dead.
+ */
+public final class LevenshteinAutomaton {
+
+    private final String query;
+    private final int maxDistance;
+
+    /**
+     * Constructor
+     * @param query The query
+     * @param maxDistance The maximal edit distance of an accepted string from the query
+     */
+    public LevenshteinAutomaton(String query, int maxDistance) {
+        this.query = query;
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Return the number of ints in a state
+     */
+    public int getStateSize() { return query.length() + 1; }
+
+    /**
+     * Set the given state to the start state (before reading any input).
+     * @param state The state to set
+     */
+    public void start(int[] state) {
+        for (int j = 0; j <= query.length(); ++j) {
+            state[j] = Math.min(j, maxDistance + 1);
+        }
+    }
+
+    /**
+     * Read a char.
+     * @param state The current state
+     * @param c The char
+     * @param next The state to set to the state after reading the char
+     * @return True if the next state is not dead, False otherwise
+     */
+    public boolean step(int[] state, int c, int[] next) {
+        int min = next[0] = Math.min(state[0] + 1, maxDistance + 1);
+        for (int j = 1; j <= query.length(); ++j) {
+            int cost = state[j - 1] + ((query.charAt(j - 1) == c) ? 0 : 1);
+            cost = Math.min(cost, Math.min(state[j], next[j - 1]) + 1);
+            next[j] = Math.min(cost, maxDistance + 1);
+            min = Math.min(min, next[j]);
+        }
+        return min <= maxDistance;
+    }
+
+    /**
+     * Check if the input read to reach the given state is accepted.
+     * @param state The state
+     * @return True if it is within the maximal distance of the query, False otherwise
+     */
+    public boolean isMatch(int[] state) {
+        return state[query.length()] <= maxDistance;
+    }
+}
@@ -22,6 +22,18 @@ public class Line implements Comparable<Line>{
         this.initLineParts(line);
     }
 
+    /**
+     * Initializes the line with the given parts.
+     * @param term The term
+     * @param reviewId The review id
+     * @param frequency The frequency of the term in the review
+     */
+    public Line(int term, int reviewId, int frequency){
+        this.term = term;
+        this.reviewId = reviewId;
+        this.frequency = frequency;
+    }
+
     /**
      * Initializes the different line parts.
      */
@@ -39,6 +51,12 @@ public class Line implements Comparable<Line>{
         return term;
     }
 
+    /**
+     * Set the line's term member
+     * @param term The term to set
+     */
+    public void setTerm(int term) { this.term = term; }
+
     /**
      * Get the line's reviewId
      */
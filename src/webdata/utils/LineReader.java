@@ -0,0 +1,191 @@
+package webdata.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines of bytes from a stream or a buffer, without creating a String for every line.
+ * The current line is exposed as a range of the internal buffer, which is only valid until the next line is read.
+ */
+public class LineReader implements Closeable {
+
+    private final InputStream in;
+    private final ByteBuffer source;
+    private byte[] buf;
+    private int pos = 0;  // First byte not returned yet
+    private int limit = 0;  // End of the data in the buffer
+    private boolean eof = false;
+
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+    /**
+     * Constructor
+     * @param in The stream to read from
+     * @param bufferSize The initial size of the buffer (it grows if a line is longer)
+     */
+    public LineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.source = null;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Constructor
+     * @param source The buffer to read from (e.g. a mapped part of a file), from it's position to it's limit
+     * @param bufferSize The initial size of the buffer (it grows if a line is longer)
+     */
+    public LineReader(ByteBuffer source, int bufferSize) {
+        this.in = null;
+        this.source = source;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Advance to the next line.
+     * @return True if there is a line, False at the end of the stream
+     * @throws IOException
+     */
+    public boolean readLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            for (int i = scan; i < limit; ++i) {
+                if (buf[i] == '\n') {
+                    setLine(pos, i);
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (pos < limit) {
+                    setLine(pos, limit);
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan = fill();
+        }
+    }
+
+    /**
+     * Read more data to the buffer, moving the unread data to it's start (or growing it if it is full).
+     * @return The position in the buffer from which the new data starts
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        int unread = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, unread);
+        } else if (unread == buf.length) {
+            byte[] newBuf = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, newBuf, 0, unread);
+            buf = newBuf;
+        }
+        pos = 0;
+        limit = unread;
+        int read;
+        if (in != null) {
+            read = in.read(buf, limit, buf.length - limit);
+        } else {
+            read = Math.min(source.remaining(), buf.length - limit);
+            source.get(buf, limit, read);
+            read = (read == 0) ? -1 : read;
+        }
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return unread;
+    }
+
+    /**
+     * Set the bounds of the current line, without the line terminator.
+     */
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = (end > start && buf[end - 1] == '\r') ? end - 1 : end;
+    }
+
+    /**
+     * Return the buffer holding the current line
+     */
+    public byte[] getBuffer() { return buf; }
+
+    /**
+     * Return the position of the current line in the buffer
+     */
+    public int getLineStart() { return lineStart; }
+
+    /**
+     * Return the end of the current line in the buffer (exclusive)
+     */
+    public int getLineEnd() { return lineEnd; }
+
+    /**
+     * Check if the current line starts with the given prefix
+     * @param prefix The prefix as bytes
+     * @return True if it does, False otherwise
+     */
+    public boolean startsWith(byte[] prefix) {
+        if (lineEnd - lineStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (buf[lineStart + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the current line from the given offset as a String (the input is expected to be ASCII at that range)
+     * @param offset Offset from the start of the line
+     */
+    public String substring(int offset) {
+        return new String(buf, lineStart + offset, lineEnd - lineStart - offset, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parse the number written at the given range of the current line, ignoring anything but digits.
+     * @param from Offset from the start of the line
+     * @param to End offset from the start of the line (exclusive)
+     * @return The number
+     */
+    public int parseInt(int from, int to) {
+        int val = 0;
+        for (int i = lineStart + from; i < lineStart + to; ++i) {
+            if ('0' <= buf[i] && buf[i] <= '9') {
+                val = val * 10 + (buf[i] - '0');
+            }
+        }
+        return val;
+    }
+
+    /**
+     * Find the first occurrence of the given byte in the current line
+     * @param b The byte to find
+     * @param from Offset from the start of the line to start looking from
+     * @return The offset of the byte from the start of the line, or the length of the line if not found
+     */
+    public int indexOf(byte b, int from) {
+        for (int i = lineStart + from; i < lineEnd; ++i) {
+            if (buf[i] == b) {
+                return i - lineStart;
+            }
+        }
+        return lineEnd - lineStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package webdata.utils;
+
+import java.io.IOException;
+
+/**
+ * Merges sorted run files with a tournament (loser) tree. The records are ordered by a primitive key (the term in
+ * the high half and the review id in the low half), so advancing the merge costs about log2(k) comparisons of longs
+ * and allocates nothing.
+ * The internal nodes are tree[1..k-1] and hold the loser of the game played at them, tree[0] holds the overall
+ * winner. The children of node n are 2n and 2n+1, where the inputs are the nodes k..2k-1.
+ */
+public class LoserTree implements PostingSource {
+
+    /* The key of an exhausted input, which loses to every record */
+    private static final long EXHAUSTED = Long.MAX_VALUE;
+
+    private final RunFileReader[] readers;
+    private final int[][] termMappings;
+    private final long[] keys;
+    private final int[] frequencies;
+    private final int[] tree;
+
+    /* Whether the current record was returned by next() already */
+    private boolean started = false;
+
+    /**
+     * Constructor
+     * @param readers The readers of the runs to merge, not advanced yet
+     * @param termMappings Maps the terms of every run to the terms to merge by, or null to merge by the terms as
+     *                     read (the mapping of a single run may be null as well)
+     * @throws IOException
+     */
+    public LoserTree(RunFileReader[] readers, int[][] termMappings) throws IOException {
+        this.readers = readers;
+        this.termMappings = termMappings;
+        int k = readers.length;
+        keys = new long[k];
+        frequencies = new int[k];
+        tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; ++i) {
+            read(i);
+        }
+        if (k > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    /**
+     * Play the games of the subtree of the given node.
+     * @param node The node
+     * @return The winner of the subtree
+     */
+    private int build(int node) {
+        int k = readers.length;
+        if (node >= k) {
+            return node - k;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (keys[right] < keys[left]) {
+            tree[node] = left;
+            return right;
+        }
+        tree[node] = right;
+        return left;
+    }
+
+    /**
+     * Read the next record of the given input to it's key.
+     */
+    private void read(int input) throws IOException {
+        RunFileReader reader = readers[input];
+        if (reader.next()) {
+            int term = reader.getTerm();
+            if (termMappings != null && termMappings[input] != null) {
+                term = termMappings[input][term];
+            }
+            keys[input] = ((long) term << 32) | reader.getReviewId();
+            frequencies[input] = reader.getFrequency();
+        } else {
+            keys[input] = EXHAUSTED;
+            reader.close();
+        }
+    }
+
+    /**
+     * Check if there are records left
+     * @return True if there is a current record, False if all inputs are exhausted
+     */
+    public boolean hasNext() {
+        return readers.length > 0 && keys[tree[0]] != EXHAUSTED;
+    }
+
+    /**
+     * Advance to the next record, where the first call stays at the first record.
+     * @return True if there is a record, False if all inputs are exhausted
+     * @throws IOException
+     */
+    @Override
+    public boolean next() throws IOException {
+        if (started) {
+            advance();
+        } else {
+            started = true;
+        }
+        return hasNext();
+    }
+
+    /**
+     * Get the term of the current (minimal) record
+     */
+    @Override
+    public int getTerm() { return (int) (keys[tree[0]] >>> 32); }
+
+    /**
+     * Get the review id of the current record
+     */
+    @Override
+    public int getReviewId() { return (int) keys[tree[0]]; }
+
+    /**
+     * Get the frequency of the current record
+     */
+    @Override
+    public int getFrequency() { return frequencies[tree[0]]; }
+
+    /**
+     * Replace the current record by the next record of it's input, and replay the games on the path from that input
+     * to the root.
+     * @throws IOException
+     */
+    public void advance() throws IOException {
+        int winner = tree[0];
+        read(winner);
+        long key = keys[winner];
+        for (int node = (winner + readers.length) >> 1; node > 0; node >>= 1) {
+            int loser = tree[node];
+            if (keys[loser] < key) {
+                tree[node] = winner;
+                winner = loser;
+                key = keys[loser];
+            }
+        }
+        tree[0] = winner;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RunFileReader reader: readers) {
+            reader.close();
+        }
+    }
+}
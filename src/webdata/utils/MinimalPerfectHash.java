@@ -0,0 +1,229 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A minimal perfect hash of a set of Strings (BBHash style), mapping every key to it's ordinal in O(1).
+ * The keys are hashed into a bit array per level, twice as large as the number of keys left: a key that doesn't
+ * collide with another key at a level sets it's bit there, and the rest of the keys go on to the next level. The
+ * slot of a key is the rank of it's bit over the concatenated levels, so the slots are exactly 0..n-1.
+ * Every slot holds the ordinal of it's key and a 32 bit fingerprint of it, which rejects keys that are not in the
+ * set (all but about one in 2^32 of them).
+ * The hash is kept in a single buffer with the same layout as it's file (big endian): a header of HEADER_SIZE bytes
+ * (magic, version, number of keys, number of levels, number of words), the first word of every level and the end
+ * of the last one (int[]), the bit arrays (long[]), the number of set bits before every word (int[]), and the
+ * fingerprints and ordinals of the slots (int[] each).
+ */
+public class MinimalPerfectHash {
+
+    private static final int MAGIC = 0x574D5048;  // "WMPH"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final double GAMMA = 2.0;
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final ByteBuffer data;
+    private final int numOfKeys;
+    private final int numOfLevels;
+    private final int levelsOffset;
+    private final int wordsOffset;
+    private final int ranksOffset;
+    private final int fingerprintsOffset;
+    private final int ordinalsOffset;
+
+    /**
+     * Constructor
+     * @param data The hash
+     * @throws IOException If the hash is not in a supported format
+     */
+    private MinimalPerfectHash(ByteBuffer data) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a perfect hash file");
+        }
+        if (data.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported perfect hash version " + data.getInt(Integer.BYTES));
+        }
+        this.data = data;
+        numOfKeys = data.getInt(2 * Integer.BYTES);
+        numOfLevels = data.getInt(3 * Integer.BYTES);
+        int numOfWords = data.getInt(4 * Integer.BYTES);
+        levelsOffset = HEADER_SIZE;
+        wordsOffset = levelsOffset + (numOfLevels + 1) * Integer.BYTES;
+        ranksOffset = wordsOffset + numOfWords * Long.BYTES;
+        fingerprintsOffset = ranksOffset + numOfWords * Integer.BYTES;
+        ordinalsOffset = fingerprintsOffset + numOfKeys * Integer.BYTES;
+    }
+
+    /**
+     * Build the hash of the given keys.
+     * @param keys The keys, where the ordinal of a key is it's position (no duplicates)
+     * @return The hash
+     */
+    public static MinimalPerfectHash build(ArrayList<String> keys) {
+        int n = keys.size();
+        long[] h1 = new long[n];
+        long[] h2 = new long[n];
+        for (int i = 0; i < n; ++i) {
+            h1[i] = Utils.hash(keys.get(i), SEED1);
+            h2[i] = Utils.hash(keys.get(i), SEED2) | 1;
+        }
+
+        /* Place the keys level by level */
+        ArrayList<long[]> levels = new ArrayList<>();
+        int[] left = new int[n];
+        for (int i = 0; i < n; ++i) {
+            left[i] = i;
+        }
+        int numLeft = n;
+        int numOfWords = 0;
+        while (numLeft > 0) {
+            int level = levels.size();
+            int words = (int) Math.ceil(GAMMA * numLeft / Long.SIZE);
+            long bits = (long) words * Long.SIZE;
+            long[] seen = new long[words];
+            long[] collisions = new long[words];
+            for (int j = 0; j < numLeft; ++j) {
+                long pos = levelPosition(h1[left[j]], h2[left[j]], level, bits);
+                int word = (int) (pos >>> 6);
+                long mask = 1L << pos;
+                if ((seen[word] & mask) != 0) {
+                    collisions[word] |= mask;
+                }
+                seen[word] |= mask;
+            }
+            int next = 0;
+            for (int j = 0; j < numLeft; ++j) {
+                long pos = levelPosition(h1[left[j]], h2[left[j]], level, bits);
+                if ((collisions[(int) (pos >>> 6)] & (1L << pos)) != 0) {
+                    left[next++] = left[j];
+                }
+            }
+            for (int w = 0; w < words; ++w) {
+                seen[w] &= ~collisions[w];
+            }
+            levels.add(seen);
+            numOfWords += words;
+            numLeft = next;
+        }
+
+        /* Lay the levels out, and fill the slots through the same lookup the queries use */
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (levels.size() + 1) * Integer.BYTES +
+                                                numOfWords * (Long.BYTES + Integer.BYTES) + 2 * n * Integer.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(levels.size()).putInt(numOfWords);
+        int firstWord = 0;
+        for (long[] level: levels) {
+            buffer.putInt(firstWord);
+            firstWord += level.length;
+        }
+        buffer.putInt(firstWord);
+        for (long[] level: levels) {
+            for (long word: level) {
+                buffer.putLong(word);
+            }
+        }
+        int rank = 0;
+        for (long[] level: levels) {
+            for (long word: level) {
+                buffer.putInt(rank);
+                rank += Long.bitCount(word);
+            }
+        }
+        try {
+            MinimalPerfectHash mph = new MinimalPerfectHash(buffer);
+            for (int i = 0; i < n; ++i) {
+                int slot = mph.slot(h1[i], h2[i]);
+                buffer.putInt(mph.fingerprintsOffset + slot * Integer.BYTES, fingerprint(h1[i], h2[i]));
+                buffer.putInt(mph.ordinalsOffset + slot * Integer.BYTES, i);
+            }
+            return mph;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // Will never happen, the header was just written
+        }
+    }
+
+    /**
+     * Open a hash file by mapping it to memory (read only).
+     * @param file The hash file
+     * @return The hash
+     * @throws IOException
+     */
+    public static MinimalPerfectHash open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return new MinimalPerfectHash(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Save the hash to a file.
+     * @param file The hash file
+     * @throws IOException
+     */
+    public void save(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Return the number of keys
+     */
+    public int size() { return numOfKeys; }
+
+    /**
+     * Find the ordinal of a key.
+     * @param key The key
+     * @return The ordinal of the key, or -1 if it is not one of the keys
+     */
+    public int lookup(String key) {
+        long h1 = Utils.hash(key, SEED1);
+        long h2 = Utils.hash(key, SEED2) | 1;
+        int slot = slot(h1, h2);
+        if (slot < 0 || data.getInt(fingerprintsOffset + slot * Integer.BYTES) != fingerprint(h1, h2)) {
+            return -1;
+        }
+        return data.getInt(ordinalsOffset + slot * Integer.BYTES);
+    }
+
+    /**
+     * Find the slot of a key by it's hashes: the rank of the first level bit it set.
+     * @return The slot, or -1 if the key set no bit at any level (so it is not one of the keys)
+     */
+    private int slot(long h1, long h2) {
+        for (int level = 0; level < numOfLevels; ++level) {
+            int firstWord = data.getInt(levelsOffset + level * Integer.BYTES);
+            int words = data.getInt(levelsOffset + (level + 1) * Integer.BYTES) - firstWord;
+            long pos = levelPosition(h1, h2, level, (long) words * Long.SIZE);
+            int word = firstWord + (int) (pos >>> 6);
+            long bits = data.getLong(wordsOffset + word * Long.BYTES);
+            if ((bits & (1L << pos)) != 0) {
+                return data.getInt(ranksOffset + word * Integer.BYTES) + Long.bitCount(bits & ((1L << pos) - 1));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The position of a key in the bit array of a level.
+     */
+    private static long levelPosition(long h1, long h2, int level, long bits) {
+        return Long.remainderUnsigned(Utils.mix(h1 + level * h2), bits);
+    }
+
+    /**
+     * The fingerprint of a key, stored in it's slot.
+     */
+    private static int fingerprint(long h1, long h2) {
+        return (int) Utils.mix(h1 ^ Long.rotateLeft(h2, 32));
+    }
+}
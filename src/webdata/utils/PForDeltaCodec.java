@@ -0,0 +1,178 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A patched frame of reference (PForDelta) posting codec. The values (or their gaps) are split to blocks of
+ * BLOCK_SIZE, and every block is bit packed at the width that makes it smallest: the few values that don't fit the
+ * width (the exceptions) keep their low bits in the packed block, and their high bits are stored after it.
+ * The format is the number of values (an int), and for every block: the bit width and the number of exceptions
+ * (a byte each), the packed values (big endian bit order, padded to a byte), the positions of the exceptions in the
+ * block (a byte each) and their high bits (7 bits per byte, with the highest bit set on all bytes but the last).
+ * The packed values are decoded, and the gaps summed, by a BitUnpacker.
+ */
+class PForDeltaCodec implements PostingCodec {
+
+    static final int BLOCK_SIZE = 128;
+
+    private final BitUnpacker unpacker;
+
+    /* The encoding scratch arrays of every thread, since the codec is shared (a posting list is encoded a skip block
+       at a time, so they would otherwise be allocated for every block) */
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The arrays a block is encoded with.
+     */
+    private static final class Scratch {
+        final int[] block = new int[BLOCK_SIZE];
+        final int[] numOfLengths = new int[Integer.SIZE + 1];  // The number of values of every bit length in the block
+    }
+
+    /**
+     * Constructor
+     * @param unpacker The decoder of the packed values
+     */
+    PForDeltaCodec(BitUnpacker unpacker) {
+        this.unpacker = unpacker;
+    }
+
+    @Override
+    public int getId() { return 1; }
+
+    @Override
+    public String getName() { return "PForDelta (" + unpacker.getName() + ")"; }
+
+    @Override
+    public int maxEncodedLength(int count) {
+        /* A block is never larger than it is packed at 32 bits, without exceptions */
+        return Integer.BYTES + (count + BLOCK_SIZE - 1) / BLOCK_SIZE * 2 + count * Integer.BYTES;
+    }
+
+    @Override
+    public void encode(int[] values, int count, boolean codeAsGap, ByteBuffer out) {
+        out.putInt(count);
+        Scratch encoding = scratch.get();
+        int[] block = encoding.block;
+        int[] numOfLengths = encoding.numOfLengths;
+        int prevVal = 0;
+        for (int from = 0; from < count; from += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, count - from);
+            Arrays.fill(numOfLengths, 0);
+            for (int i = 0; i < n; ++i) {
+                block[i] = values[from + i] - prevVal;
+                prevVal = (codeAsGap) ? values[from + i] : 0;
+                ++numOfLengths[bitLength(block[i])];
+            }
+            int width = bestWidth(numOfLengths, n);
+            int numOfExceptions = 0;
+            for (int length = width + 1; length <= Integer.SIZE; ++length) {
+                numOfExceptions += numOfLengths[length];
+            }
+            out.put((byte) width);
+            out.put((byte) numOfExceptions);
+
+            long mask = (1L << width) - 1;
+            long acc = 0;
+            int accBits = 0;
+            for (int i = 0; i < n; ++i) {
+                acc = (acc << width) | (block[i] & mask);
+                accBits += width;
+                while (accBits >= Byte.SIZE) {
+                    accBits -= Byte.SIZE;
+                    out.put((byte) (acc >>> accBits));
+                }
+            }
+            if (accBits > 0) {
+                out.put((byte) (acc << (Byte.SIZE - accBits)));
+            }
+
+            if (numOfExceptions > 0) {
+                for (int i = 0; i < n; ++i) {
+                    if (bitLength(block[i]) > width) {
+                        out.put((byte) i);
+                    }
+                }
+                for (int i = 0; i < n; ++i) {
+                    if (bitLength(block[i]) > width) {
+                        putVarint(out, block[i] >>> width);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int decode(ByteBuffer in, boolean codeAsGap, int[] out) {
+        int count = in.getInt();
+        int pos = in.position();
+        int prevVal = 0;
+        for (int from = 0; from < count; from += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, count - from);
+            int width = in.get(pos++);
+            int numOfExceptions = in.get(pos++) & 0xFF;
+            pos = unpacker.unpack(in, pos, width, out, from, n);
+
+            int highPos = pos + numOfExceptions;
+            for (int e = 0; e < numOfExceptions; ++e) {
+                int high = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = in.get(highPos++);
+                    high |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                out[from + (in.get(pos + e) & 0xFF)] |= high << width;
+            }
+            pos = highPos;
+
+            if (codeAsGap) {
+                prevVal = unpacker.prefixSum(out, from, n, prevVal);
+            }
+        }
+        in.position(pos);
+        return count;
+    }
+
+    /**
+     * Find the bit width that makes a block smallest.
+     * @param numOfLengths The number of values of every bit length in the block
+     * @param n The number of values in the block
+     * @return The width
+     */
+    private static int bestWidth(int[] numOfLengths, int n) {
+        int best = Integer.SIZE;
+        long bestSize = Long.MAX_VALUE;
+        for (int width = 0; width <= Integer.SIZE; ++width) {
+            long size = (n * width + 7) / Byte.SIZE;
+            for (int length = width + 1; length <= Integer.SIZE; ++length) {
+                size += numOfLengths[length] * (1 + (length - width + 6) / 7);
+            }
+            if (size < bestSize) {
+                best = width;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the number of bits of a non negative value
+     */
+    private static int bitLength(int val) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(val);
+    }
+
+    /**
+     * Write a value 7 bits at a time, lowest bits first.
+     */
+    private static void putVarint(ByteBuffer out, int val) {
+        while ((val & ~0x7F) != 0) {
+            out.put((byte) ((val & 0x7F) | 0x80));
+            val >>>= 7;
+        }
+        out.put((byte) val);
+    }
+}
@@ -0,0 +1,153 @@
+package webdata.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the terms of a partial index written by a PartialIndexWriter, one term and it's postings at a time.
+ */
+public class PartialIndexReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private byte[] term = new byte[64];
+    private int termLength = 0;
+    private byte[] postings = new byte[1024];
+    private int postingsLength = 0;
+    private int numOfPostings = 0;
+
+    /* The posting of the current term that was decoded last */
+    private int numOfDecoded = 0;
+    private int decodePos = 0;
+    private int reviewId = 0;
+    private int frequency = 0;
+
+    /**
+     * Constructor
+     * @param path The path of the partial index file
+     * @param bufferSize The size of the read ahead buffer
+     * @throws IOException
+     */
+    public PartialIndexReader(String path, int bufferSize) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), bufferSize));
+    }
+
+    /**
+     * Advance to the next term.
+     * @return True if there is a term, False at the end of the file
+     * @throws IOException
+     */
+    public boolean nextTerm() throws IOException {
+        int prefix;
+        try {
+            prefix = readVarint(in);
+        } catch (EOFException e) {
+            return false;
+        }
+        int suffix = readVarint(in);
+        termLength = prefix + suffix;
+        if (termLength > term.length) {
+            term = Arrays.copyOf(term, Math.max(termLength, term.length * 2));
+        }
+        in.readFully(term, prefix, suffix);
+        numOfPostings = readVarint(in);
+        postingsLength = readVarint(in);
+        if (postingsLength > postings.length) {
+            postings = new byte[Math.max(postingsLength, postings.length * 2)];
+        }
+        in.readFully(postings, 0, postingsLength);
+        numOfDecoded = decodePos = reviewId = 0;
+        return true;
+    }
+
+    /**
+     * Get the current term as a String (each byte is a char)
+     */
+    public String getTerm() {
+        return new String(term, 0, termLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compare the current term to the current term of another reader, by the order of their Strings.
+     * @param other The other reader
+     * @return Negative number if this term is smaller, 0 if equal, and positive if it is greater
+     */
+    public int compareTerm(PartialIndexReader other) {
+        return Arrays.compareUnsigned(term, 0, termLength, other.term, 0, other.termLength);
+    }
+
+    /**
+     * Get the number of postings of the current term
+     */
+    public int getNumOfPostings() { return numOfPostings; }
+
+    /**
+     * Get a copy of the bytes of the current term
+     */
+    public byte[] getTermBytes() {
+        return Arrays.copyOf(term, termLength);
+    }
+
+    /**
+     * Decode the next posting of the current term.
+     * @return True if there is a posting, False if all postings of the term were decoded
+     */
+    public boolean nextPosting() {
+        if (numOfDecoded == numOfPostings) {
+            return false;
+        }
+        reviewId += decodeVarint();
+        frequency = decodeVarint();
+        ++numOfDecoded;
+        return true;
+    }
+
+    /**
+     * Get the review id of the last decoded posting
+     */
+    public int getReviewId() { return reviewId; }
+
+    /**
+     * Get the frequency of the last decoded posting
+     */
+    public int getFrequency() { return frequency; }
+
+    /**
+     * Decode the varint at the decode position of the postings, and advance the position past it.
+     */
+    private int decodeVarint() {
+        int val = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = postings[decodePos++];
+            val |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return val;
+    }
+
+    /**
+     * Read a varint written by PartialIndexWriter.writeVarint
+     * @param in The stream to read from
+     * @return The value
+     * @throws IOException
+     */
+    static int readVarint(DataInput in) throws IOException {
+        int val = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            val |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return val;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,117 @@
+package webdata.utils;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Writes a partial index: the terms of a block of reviews, sorted and front coded, each followed by it's postings.
+ * The postings of a term are written as they were encoded in memory: a varint gap from the previous review id (from
+ * 0 for the first posting) and a varint frequency for every posting.
+ * Every term is written as: the length of the prefix it shares with the previous term, the length of the rest of
+ * the term, the rest of the term, the number of postings, the number of bytes of the postings, and the postings.
+ */
+public class PartialIndexWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private byte[] prevTerm = new byte[0];
+
+    /* The encoded postings of the term that addPosting adds to */
+    private byte[] termPostings = new byte[1024];
+    private int termPostingsLength = 0;
+    private int termNumOfPostings = 0;
+    private int termLastReviewId = 0;
+
+    /**
+     * Constructor
+     * @param path The path of the partial index file to create
+     * @throws IOException
+     */
+    public PartialIndexWriter(String path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+    }
+
+    /**
+     * Write a term and it's postings. Terms must be written by their order.
+     * @param term The term
+     * @param postings The encoded postings
+     * @param postingsLength The number of bytes of the postings
+     * @param numOfPostings The number of postings
+     * @throws IOException
+     */
+    public void write(byte[] term, byte[] postings, int postingsLength, int numOfPostings) throws IOException {
+        int prefix = 0;
+        int maxPrefix = Math.min(term.length, prevTerm.length);
+        while (prefix < maxPrefix && term[prefix] == prevTerm[prefix]) {
+            ++prefix;
+        }
+        writeVarint(out, prefix);
+        writeVarint(out, term.length - prefix);
+        out.write(term, prefix, term.length - prefix);
+        writeVarint(out, numOfPostings);
+        writeVarint(out, postingsLength);
+        out.write(postings, 0, postingsLength);
+        prevTerm = term;
+    }
+
+    /**
+     * Add a posting to the term that is written by the next call to writeTerm.
+     * @param reviewId The review id, larger than the one of the previous posting
+     * @param frequency The frequency
+     */
+    public void addPosting(int reviewId, int frequency) {
+        if (termPostingsLength + 2 * 5 > termPostings.length) {  // Two varints of 5 bytes
+            termPostings = Arrays.copyOf(termPostings, termPostings.length * 2);
+        }
+        termPostingsLength = putVarint(termPostings, termPostingsLength, reviewId - termLastReviewId);
+        termPostingsLength = putVarint(termPostings, termPostingsLength, frequency);
+        termLastReviewId = reviewId;
+        ++termNumOfPostings;
+    }
+
+    /**
+     * Write a term with the postings added to it since the previous term. Terms must be written by their order.
+     * @param term The term
+     * @throws IOException
+     */
+    public void writeTerm(byte[] term) throws IOException {
+        write(term, termPostings, termPostingsLength, termNumOfPostings);
+        termPostingsLength = termNumOfPostings = termLastReviewId = 0;
+    }
+
+    /**
+     * Put a non negative int as a varint in an array, the way writeVarint writes it.
+     * @param buf The array to put in
+     * @param pos The position to put at
+     * @param val The value
+     * @return The position after the varint
+     */
+    private static int putVarint(byte[] buf, int pos, int val) {
+        while ((val & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        buf[pos++] = (byte) val;
+        return pos;
+    }
+
+    /**
+     * Write a non negative int as a varint (7 bits per byte, the high bit marks that more bytes follow).
+     * @param out The stream to write to
+     * @param val The value
+     * @throws IOException
+     */
+    static void writeVarint(DataOutput out, int val) throws IOException {
+        while ((val & ~0x7F) != 0) {
+            out.writeByte((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        out.writeByte(val);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
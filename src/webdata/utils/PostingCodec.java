@@ -0,0 +1,88 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a list of non negative ints (the review ids or the frequencies of a posting list) to bytes and decodes it.
+ * Every encoded list starts with the number of values (an int), so it's length can be read without decoding it.
+ * The codec of an index is recorded in it by it's id.
+ */
+public interface PostingCodec {
+
+    /* Varint group encoding (Encoder) */
+    PostingCodec GROUP_VARINT = new GroupVarintCodec();
+
+    /* Blocks of 128 values bit packed at a fixed width, with exceptions, decoded by the fastest BitUnpacker */
+    PostingCodec PFOR_DELTA = new PForDeltaCodec(BitUnpacker.BEST);
+
+    /**
+     * Find a codec by it's id.
+     * @param id The id
+     * @return The codec
+     * @throws IOException If there is no codec with the given id
+     */
+    static PostingCodec forId(int id) throws IOException {
+        if (id == GROUP_VARINT.getId()) {
+            return GROUP_VARINT;
+        }
+        if (id == PFOR_DELTA.getId()) {
+            return PFOR_DELTA;
+        }
+        throw new IOException("Unsupported posting codec " + id);
+    }
+
+    /**
+     * Return a PForDelta codec decoding with the given unpacker, to compare the unpackers. It reads and writes the
+     * same format as PFOR_DELTA.
+     * @param unpacker The decoder of the packed values
+     * @return The codec
+     */
+    static PostingCodec pforDelta(BitUnpacker unpacker) {
+        return new PForDeltaCodec(unpacker);
+    }
+
+    /**
+     * Return the id of the codec, which is recorded in the index
+     */
+    int getId();
+
+    /**
+     * Return the name of the codec
+     */
+    String getName();
+
+    /**
+     * Return the maximal number of bytes the given number of values are encoded to.
+     * @param count The number of values
+     * @return The number of bytes
+     */
+    int maxEncodedLength(int count);
+
+    /**
+     * Encode values to a buffer.
+     * @param values Array holding the values (non negative, and increasing if codeAsGap is true)
+     * @param count The number of values
+     * @param codeAsGap Indicate whether to encode the gaps between the values
+     * @param out The buffer to write to, from it's position, with room for maxEncodedLength(count) bytes
+     */
+    void encode(int[] values, int count, boolean codeAsGap, ByteBuffer out);
+
+    /**
+     * Return the number of values encoded at the position of the buffer.
+     * @param in The buffer
+     * @return The number of values
+     */
+    default int decodedLength(ByteBuffer in) {
+        return in.getInt(in.position());
+    }
+
+    /**
+     * Decode values from a buffer, and advance it past them.
+     * @param in The buffer to read from, from it's position
+     * @param codeAsGap Indicate whether the gaps between the values were encoded
+     * @param out The array to decode to, with room for decodedLength(in) values
+     * @return The number of values
+     */
+    int decode(ByteBuffer in, boolean codeAsGap, int[] out);
+}
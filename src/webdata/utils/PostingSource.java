@@ -0,0 +1,32 @@
+package webdata.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of (term, reviewId, frequency) records, sorted by term and then by review.
+ */
+public interface PostingSource extends Closeable {
+
+    /**
+     * Advance to the next record.
+     * @return True if there is a record, False at the end of the stream
+     * @throws IOException
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Get the term of the current record
+     */
+    int getTerm();
+
+    /**
+     * Get the review id of the current record
+     */
+    int getReviewId();
+
+    /**
+     * Get the frequency of the current record
+     */
+    int getFrequency();
+}
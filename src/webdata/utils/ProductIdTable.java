@@ -0,0 +1,164 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Maps product ids to their ordinals in one hash probe, for ids of the fixed Amazon pattern: ID_LENGTH chars of
+ * digits and uppercase letters. Such an id is packed to a long as a base 36 number, which keeps the order of the ids
+ * (digits come before letters), so the packed ids are kept sorted by ordinal. An open addressing table (linear
+ * probing, at most half full) holds the ordinal of every id in the slot of the hash of it's packed value.
+ * The table is kept in a single buffer with the same layout as it's file (big endian): a header of HEADER_SIZE bytes
+ * (magic, version, number of ids, number of slots), the packed ids (long[]) and the slots (int[], ordinal + 1 or 0
+ * for an empty slot).
+ */
+public class ProductIdTable {
+
+    private static final int MAGIC = 0x57504944;  // "WPID"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int ID_LENGTH = 10;
+    private static final int RADIX = 36;
+
+    private final ByteBuffer data;
+    private final int numOfIds;
+    private final int mask;
+    private final int slotsOffset;
+
+    /**
+     * Constructor
+     * @param data The table
+     * @throws IOException If the table is not in a supported format
+     */
+    private ProductIdTable(ByteBuffer data) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a product id table file");
+        }
+        if (data.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported product id table version " + data.getInt(Integer.BYTES));
+        }
+        this.data = data;
+        numOfIds = data.getInt(2 * Integer.BYTES);
+        mask = data.getInt(3 * Integer.BYTES) - 1;
+        slotsOffset = HEADER_SIZE + numOfIds * Long.BYTES;
+    }
+
+    /**
+     * Build the table of the given ids.
+     * @param ids The ids, sorted, where the ordinal of an id is it's position (no duplicates)
+     * @return The table, or null if some id doesn't fit the pattern
+     */
+    public static ProductIdTable build(ArrayList<String> ids) {
+        int n = ids.size();
+        int numOfSlots = Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + n * Long.BYTES + numOfSlots * Integer.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(numOfSlots);
+        for (String id: ids) {
+            long packed = pack(id);
+            if (packed < 0) {
+                return null;
+            }
+            buffer.putLong(packed);
+        }
+        try {
+            ProductIdTable table = new ProductIdTable(buffer);
+            for (int i = 0; i < n; ++i) {
+                int slot = table.firstSlot(buffer.getLong(HEADER_SIZE + i * Long.BYTES));
+                while (buffer.getInt(table.slotsOffset + slot * Integer.BYTES) != 0) {
+                    slot = (slot + 1) & table.mask;
+                }
+                buffer.putInt(table.slotsOffset + slot * Integer.BYTES, i + 1);
+            }
+            return table;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // Will never happen, the header was just written
+        }
+    }
+
+    /**
+     * Open a table file by mapping it to memory (read only).
+     * @param file The table file
+     * @return The table
+     * @throws IOException
+     */
+    public static ProductIdTable open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return new ProductIdTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Save the table to a file.
+     * @param file The table file
+     * @throws IOException
+     */
+    public void save(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Return the number of ids
+     */
+    public int size() { return numOfIds; }
+
+    /**
+     * Find the ordinal of an id.
+     * @param id The id
+     * @return The ordinal of the id, or -1 if it is not one of the ids
+     */
+    public int lookup(String id) {
+        long packed = pack(id);
+        if (packed < 0) {
+            return -1;
+        }
+        for (int slot = firstSlot(packed); ; slot = (slot + 1) & mask) {
+            int ordinal = data.getInt(slotsOffset + slot * Integer.BYTES) - 1;
+            if (ordinal < 0 || data.getLong(HEADER_SIZE + ordinal * Long.BYTES) == packed) {
+                return ordinal;
+            }
+        }
+    }
+
+    /**
+     * The slot of a packed id in the table, if no other id took it.
+     */
+    private int firstSlot(long packed) {
+        return (int) Utils.mix(packed) & mask;
+    }
+
+    /**
+     * Pack an id to a long, as a base 36 number.
+     * @param id The id
+     * @return The packed id, or -1 if the id doesn't fit the pattern
+     */
+    public static long pack(String id) {
+        if (id.length() != ID_LENGTH) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < ID_LENGTH; ++i) {
+            char c = id.charAt(i);
+            int digit;
+            if ('0' <= c && c <= '9') {
+                digit = c - '0';
+            } else if ('A' <= c && c <= 'Z') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            packed = packed * RADIX + digit;
+        }
+        return packed;
+    }
+}
@@ -3,21 +3,36 @@ package webdata.utils;
 import java.io.*;
 
 /**
- * A class representing a minimum heap of BufferedReaders
+ * A class representing a minimum heap of run file readers
  */
 public class ReaderWrapper implements Comparable<ReaderWrapper> {
 
-	BufferedReader br;
+	RunFileReader reader;
 	webdata.utils.Line currLine;
+	int[] termMapping;
 
 	/**
 	 * Constructor
-	 * @param br BufferedReader
+	 * @param reader The run file reader, positioned at it's first record
 	 * @param currLine The current line being read
+	 * @param termMapping Maps the terms read to the terms to return, or null to return them as read
 	 */
-	public ReaderWrapper(BufferedReader br, webdata.utils.Line currLine){
-		this.br = br;
-		this.currLine = currLine;
+	public ReaderWrapper(RunFileReader reader, webdata.utils.Line currLine, int[] termMapping){
+		this.reader = reader;
+		this.termMapping = termMapping;
+		this.currLine = mapTerm(currLine);
+	}
+
+	/**
+	 * Replace the term of the given line according to the term mapping of this reader.
+	 * @param line The line
+	 * @return The same line
+	 */
+	private Line mapTerm(Line line) {
+		if (termMapping != null) {
+			line.setTerm(termMapping[line.getTerm()]);
+		}
+		return line;
 	}
 
 	/**
@@ -33,13 +48,12 @@ public class ReaderWrapper implements Comparable<ReaderWrapper> {
 	 * @throws IOException
 	 */
 	public boolean advancePtr() throws IOException{
-		String line = br.readLine();
-		if (line != null){
-			currLine = new Line(line);
+		if (reader.next()){
+			currLine = mapTerm(new Line(reader.getTerm(), reader.getReviewId(), reader.getFrequency()));
 			return true;
 		}
 		currLine = null;
-		br.close();
+		reader.close();
 		return false;
 	}
 
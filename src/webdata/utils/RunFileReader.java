@@ -0,0 +1,115 @@
+package webdata.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a binary run file written by a RunFileWriter.
+ */
+public class RunFileReader implements PostingSource {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean eof = false;
+
+    private int term = -1;
+    private int reviewId = 0;
+    private int frequency = 0;
+
+    /**
+     * Constructor
+     * @param path The path of the run file
+     * @param bufferSize The size of the read ahead buffer
+     * @throws IOException
+     */
+    public RunFileReader(String path, int bufferSize) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        buffer = ByteBuffer.allocate(Math.max(bufferSize, RunFileWriter.MAX_RECORD_SIZE));
+        buffer.flip();
+    }
+
+    /**
+     * Constructor, with the default buffer size
+     * @param path The path of the run file
+     * @throws IOException
+     */
+    public RunFileReader(String path) throws IOException {
+        this(path, RunFileWriter.BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (buffer.remaining() < RunFileWriter.MAX_RECORD_SIZE && !eof) {
+            fill();
+        }
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        int termCode = getVarint(buffer);
+        if (termCode == 0) {
+            reviewId += getVarint(buffer);
+        } else {
+            term = termCode - 1;
+            reviewId = getVarint(buffer);
+        }
+        frequency = getVarint(buffer);
+        return true;
+    }
+
+    /**
+     * Read more of the file, keeping the bytes not read yet.
+     */
+    private void fill() throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Get a varint written by RunFileWriter.putVarint
+     * @param buffer The buffer to get from
+     * @return The value
+     */
+    static int getVarint(ByteBuffer buffer) {
+        int val = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            val |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return val;
+    }
+
+    /**
+     * Get the term of the current record
+     */
+    @Override
+    public int getTerm() { return term; }
+
+    /**
+     * Get the review id of the current record
+     */
+    @Override
+    public int getReviewId() { return reviewId; }
+
+    /**
+     * Get the frequency of the current record
+     */
+    @Override
+    public int getFrequency() { return frequency; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
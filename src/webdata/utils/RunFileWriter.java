@@ -0,0 +1,108 @@
+package webdata.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes (term, reviewId, frequency) records, sorted by term and then by review, to a binary run file.
+ * Every record is written as three varints:
+ * the term + 1 if it differs from the term of the previous record (or 0 if it is the same term),
+ * the review id (as a gap from the previous review if it is the same term), and the frequency.
+ */
+public class RunFileWriter implements Closeable {
+
+    static final int BUFFER_SIZE = 1 << 20;
+    static final int MAX_RECORD_SIZE = 15;  // Three varints of 5 bytes
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int prevTerm = -1;
+    private int prevReviewId = 0;
+    private long numOfRecords = 0;
+
+    /**
+     * Constructor
+     * @param path The path of the run file to create
+     * @throws IOException
+     */
+    public RunFileWriter(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Write a single record
+     * @param term The term id
+     * @param reviewId The review id
+     * @param frequency The frequency of the term in the review
+     * @throws IOException
+     */
+    public void write(int term, int reviewId, int frequency) throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+        if (term == prevTerm) {
+            putVarint(buffer, 0);
+            putVarint(buffer, reviewId - prevReviewId);
+        } else {
+            putVarint(buffer, term + 1);
+            putVarint(buffer, reviewId);
+            prevTerm = term;
+        }
+        putVarint(buffer, frequency);
+        prevReviewId = reviewId;
+        ++numOfRecords;
+    }
+
+    /**
+     * Write all records of the given source, and close it.
+     * @param source The source
+     * @throws IOException
+     */
+    public void writeAll(PostingSource source) throws IOException {
+        try (PostingSource records = source) {
+            while (records.next()) {
+                write(records.getTerm(), records.getReviewId(), records.getFrequency());
+            }
+        }
+    }
+
+    /**
+     * Return the number of records written so far
+     */
+    public long getNumOfRecords() { return numOfRecords; }
+
+    /**
+     * Write the buffered records to the file.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Put a non negative int as a varint (7 bits per byte, the high bit marks that more bytes follow).
+     * @param buffer The buffer to put in
+     * @param val The value
+     */
+    static void putVarint(ByteBuffer buffer, int val) {
+        while ((val & ~0x7F) != 0) {
+            buffer.put((byte) ((val & 0x7F) | 0x80));
+            val >>>= 7;
+        }
+        buffer.put((byte) val);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,37 @@
+package webdata.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes bit packed values one at a time, through a 64 bit accumulator.
+ */
+class ScalarBitUnpacker implements BitUnpacker {
+
+    @Override
+    public String getName() { return "scalar"; }
+
+    @Override
+    public int unpack(ByteBuffer in, int pos, int width, int[] out, int from, int n) {
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int accBits = 0;
+        for (int i = from; i < from + n; ++i) {
+            while (accBits < width) {
+                acc = (acc << Byte.SIZE) | (in.get(pos++) & 0xFF);
+                accBits += Byte.SIZE;
+            }
+            accBits -= width;
+            out[i] = (int) ((acc >>> accBits) & mask);
+        }
+        return pos;
+    }
+
+    @Override
+    public int prefixSum(int[] values, int from, int n, int prevVal) {
+        for (int i = from; i < from + n; ++i) {
+            prevVal += values[i];
+            values[i] = prevVal;
+        }
+        return prevVal;
+    }
+}
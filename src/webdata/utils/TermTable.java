@@ -0,0 +1,131 @@
+package webdata.utils;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table from terms (given as byte ranges) to ids, where the ids are given by order of
+ * insertion. Looking up a term that is already in the table doesn't allocate anything.
+ */
+public class TermTable {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    /* slots[h] is the id of the term in the slot + 1, or 0 for an empty slot */
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY / 2];
+
+    /* The bytes of all terms concatenated, termPtr[id] is where the term starts */
+    private byte[] pool = new byte[INITIAL_CAPACITY * 4];
+    private int[] termPtr = new int[INITIAL_CAPACITY / 2 + 1];
+    private int poolSize = 0;
+    private int size = 0;
+
+    /**
+     * Return the number of terms in the table
+     */
+    public int size() { return size; }
+
+    /**
+     * Return the number of bytes the arrays of the table take
+     */
+    public long getBytes() {
+        return (long) (slots.length + hashes.length + termPtr.length) * Integer.BYTES + pool.length;
+    }
+
+    /**
+     * Remove all terms, keeping the arrays (so the next ids start from 0 again).
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        poolSize = 0;
+        size = 0;
+    }
+
+    /**
+     * Return the id of the given term, adding it with the next free id if it is not in the table.
+     * @param data Array holding the term
+     * @param from First byte of the term
+     * @param length Length of the term
+     * @return The id of the term
+     */
+    public int getOrAdd(byte[] data, int from, int length) {
+        int hash = hash(data, from, length);
+        int mask = slots.length - 1;
+        int h = hash & mask;
+        while (slots[h] != 0) {
+            int id = slots[h] - 1;
+            if (hashes[id] == hash && equals(id, data, from, length)) {
+                return id;
+            }
+            h = (h + 1) & mask;
+        }
+        return add(h, hash, data, from, length);
+    }
+
+    /**
+     * Add a new term at the given empty slot.
+     */
+    private int add(int h, int hash, byte[] data, int from, int length) {
+        if (size + 1 == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            termPtr = Arrays.copyOf(termPtr, termPtr.length * 2);
+        }
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        System.arraycopy(data, from, pool, poolSize, length);
+        poolSize += length;
+        int id = size++;
+        hashes[id] = hash;
+        termPtr[id + 1] = poolSize;
+        slots[h] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Double the number of slots, keeping the load factor at most 1/2.
+     */
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < size; ++id) {
+            int h = hashes[id] & mask;
+            while (newSlots[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            newSlots[h] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Compare the term with the given id to the given bytes.
+     */
+    private boolean equals(int id, byte[] data, int from, int length) {
+        int start = termPtr[id];
+        if (termPtr[id + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (pool[start + i] != data[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash the given bytes, mixing the bits so the low bits can be used as the slot.
+     */
+    private static int hash(byte[] data, int from, int length) {
+        int h = 0;
+        for (int i = from; i < from + length; ++i) {
+            h = 31 * h + data[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,71 @@
+package webdata.utils;
+
+/**
+ * A tokenizer working directly on the bytes of the input.
+ * A token is a maximal run of ASCII letters and digits, and is lowercased on the way. Any other byte (including
+ * the bytes of non ASCII characters) separates tokens, so this is equivalent to splitting the lowercased text by
+ * "[^A-Za-z0-9]+", without regex and without creating any String.
+ */
+public final class Tokenizer {
+
+    /**
+     * Receives the tokens found by the tokenizer.
+     */
+    public interface TokenConsumer {
+        /**
+         * Handle a single token. The bytes are only valid until this method returns.
+         * @param data The array holding the token
+         * @param from The first byte of the token
+         * @param length The length of the token
+         */
+        void accept(byte[] data, int from, int length);
+    }
+
+    /* Maps a byte to it's lowercase value, or to 0 if it is not alphanumeric */
+    private static final byte[] LOWER = new byte[256];
+
+    static {
+        for (int c = '0'; c <= '9'; ++c) {
+            LOWER[c] = (byte) c;
+        }
+        for (int c = 'a'; c <= 'z'; ++c) {
+            LOWER[c] = (byte) c;
+            LOWER[c - 'a' + 'A'] = (byte) c;
+        }
+    }
+
+    /**
+     * Empty and private constructor to make this class static.
+     */
+    private Tokenizer() {}
+
+    /**
+     * Break the bytes in the given range to tokens. The tokens are lowercased in place (so the given range is
+     * changed) and handed to the consumer one by one.
+     * @param data The bytes to tokenize
+     * @param from First byte of the range
+     * @param to End of the range (exclusive)
+     * @param consumer Receives every token found
+     * @return The number of tokens found
+     */
+    public static int tokenize(byte[] data, int from, int to, TokenConsumer consumer) {
+        int numOfTokens = 0;
+        int i = from;
+        while (i < to) {
+            while (i < to && LOWER[data[i] & 0xff] == 0) {
+                ++i;
+            }
+            int start = i;
+            byte lower;
+            while (i < to && (lower = LOWER[data[i] & 0xff]) != 0) {
+                data[i] = lower;
+                ++i;
+            }
+            if (i > start) {
+                consumer.accept(data, start, i - start);
+                ++numOfTokens;
+            }
+        }
+        return numOfTokens;
+    }
+}
@@ -90,4 +90,30 @@ public final class Utils {
             arr[i] = list.get(i);
         }
     }
+
+    /**
+     * Hash the chars of a String (FNV-1a, mixed).
+     * @param key The String
+     * @param seed The seed, different seeds give independent hashes
+     * @return The hash
+     */
+    public static long hash(String key, long seed) {
+        long h = seed;
+        for (int i = 0; i < key.length(); ++i) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, spreading every bit of the input over the output.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
 }